@@ -0,0 +1,71 @@
+package com.ev07b.bench;
+
+import com.ev07b.net.FrameUtil;
+import com.ev07b.util.CRC16;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Realistic frame bodies and wire frames shared by the benchmarks. */
+final class BenchFrames {
+
+    private BenchFrames() {}
+
+    /** Body [cmd][0x10 0x01 imei(15)][0x09 0x20 latLE lonLE][0x05 0x24 utcLE], optionally with an alarm key. */
+    static byte[] body(int cmd, String imei, int latE7, int lonE7, long utc, long alarmCode, long alarmExtend) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(cmd);
+        byte[] id = imei.getBytes(StandardCharsets.US_ASCII);
+        out.write(1 + id.length);
+        out.write(0x01);
+        out.write(id, 0, id.length);
+        out.write(9);
+        out.write(0x20);
+        intLE(out, latE7);
+        intLE(out, lonE7);
+        out.write(5);
+        out.write(0x24);
+        intLE(out, (int) utc);
+        if (alarmCode != 0) {
+            out.write(13);
+            out.write(0x02);
+            intLE(out, (int) alarmCode);
+            intLE(out, (int) utc);
+            intLE(out, (int) alarmExtend);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] heartbeat(String imei, int latE7, int lonE7) {
+        return body(0x10, imei, latE7, lonE7, 1_760_000_000L, 0, 0);
+    }
+
+    static String imei(int i) {
+        return String.format("35%013d", i);
+    }
+
+    /** EV04/EV07B wire frame with the ACK-request bit set. */
+    static byte[] ev04Frame(int seq, byte[] body) {
+        return FrameUtil.buildFrame((byte) 0x10, seq, body);
+    }
+
+    /** Legacy wire frame: [0xAB][lenBE][body][crcBE]. */
+    static byte[] legacyFrame(byte[] body) {
+        byte[] f = new byte[body.length + 5];
+        f[0] = (byte) 0xAB;
+        f[1] = (byte) (body.length >>> 8);
+        f[2] = (byte) body.length;
+        System.arraycopy(body, 0, f, 3, body.length);
+        int crc = CRC16.crc16Ccitt(body) & 0xFFFF;
+        f[3 + body.length] = (byte) (crc >>> 8);
+        f[4 + body.length] = (byte) crc;
+        return f;
+    }
+
+    private static void intLE(ByteArrayOutputStream out, int v) {
+        out.write(v);
+        out.write(v >>> 8);
+        out.write(v >>> 16);
+        out.write(v >>> 24);
+    }
+}
@@ -0,0 +1,125 @@
+package com.ev07b.bench;
+
+import com.ev07b.codec.EV07BFrameDecoder;
+import com.ev07b.net.ChannelSession;
+import com.ev07b.net.SequenceManager;
+import com.ev07b.util.DeviceKeys;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-frame identity cost before and after ChannelSession.
+ *
+ * decodeFrame: one heartbeat through the EV04 decoder, with the channel's session unbound (IMEI
+ * extracted from the key index and materialized as a String, the pre-session path) or bound (id taken
+ * from the session).
+ *
+ * mapLookups / sessionLookups: what the business handler, CommandService and the geofence evaluator
+ * did per frame to find the device's state, over {@code devices} connected channels. mapLookups
+ * replays the former lookups (register into both connection maps keyed by id and by
+ * ch.id().asLongText(), pending-count probe, sequence counter and fence-state computeIfAbsent);
+ * sessionLookups reads the same state from the channel attribute. {@code identified} only affects
+ * decodeFrame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelSessionBenchmark {
+
+    @Param({"false", "true"})
+    boolean identified;
+
+    @Param({"10000"})
+    int devices;
+
+    // decodeFrame
+    EmbeddedChannel decodeChannel;
+    ByteBuf frame;
+
+    // lookups
+    Channel[] channels;
+    String[] ids;
+    final Map<String, Channel> sessions = new ConcurrentHashMap<>();
+    final Map<String, String> channelToDevice = new ConcurrentHashMap<>();
+    final Map<String, Integer> pendingCounts = new ConcurrentHashMap<>();
+    final Map<String, AtomicInteger> sequences = new ConcurrentHashMap<>();
+    final Map<String, Object> fenceState = new ConcurrentHashMap<>();
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String imei = BenchFrames.imei(7);
+        frame = Unpooled.directBuffer().writeBytes(BenchFrames.ev04Frame(1, BenchFrames.heartbeat(imei, 300_000_000, 1_200_000_000)));
+        decodeChannel = new EmbeddedChannel(new EV07BFrameDecoder(false));
+        if (identified) ChannelSession.of(decodeChannel).identify(DeviceKeys.of(imei), imei, new AtomicInteger(), false);
+
+        channels = new Channel[devices];
+        ids = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            channels[i] = new EmbeddedChannel(DefaultChannelId.newInstance());
+            ids[i] = BenchFrames.imei(i);
+            AtomicInteger seq = sequences.computeIfAbsent(ids[i], k -> new AtomicInteger());
+            Object st = fenceState.computeIfAbsent(ids[i], k -> new Object());
+            ChannelSession s = ChannelSession.of(channels[i]);
+            s.identify(DeviceKeys.of(ids[i]), ids[i], seq, false);
+            s.geofenceState(st);
+            sessions.put(ids[i], channels[i]);
+            channelToDevice.put(channels[i].id().asLongText(), ids[i]);
+            if (i % 10 == 0) pendingCounts.put(ids[i], 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        decodeChannel.finishAndReleaseAll();
+        frame.release();
+        for (Channel ch : channels) ((EmbeddedChannel) ch).finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void decodeFrame(Blackhole bh) {
+        decodeChannel.writeInbound(frame.retainedDuplicate());
+        Object msg = decodeChannel.readInbound();
+        bh.consume(msg);
+        ReferenceCountUtil.release(msg);
+    }
+
+    @Benchmark
+    public void mapLookups(Blackhole bh) {
+        int i = next++ % devices;
+        Channel ch = channels[i];
+        String id = ids[i];
+        // EV07BBusinessHandler: register on every frame
+        sessions.put(id, ch);
+        channelToDevice.put(ch.id().asLongText(), id);
+        // CommandService.deliverPending
+        bh.consume(pendingCounts.containsKey(id));
+        // GeofenceEvaluatorService.evaluateAndNotify / sendAlarm
+        bh.consume(fenceState.computeIfAbsent(id, k -> new Object()));
+        bh.consume(SequenceManager.next(sequences.computeIfAbsent(id, k -> new AtomicInteger())));
+    }
+
+    @Benchmark
+    public void sessionLookups(Blackhole bh) {
+        Channel ch = channels[next++ % devices];
+        ChannelSession s = ChannelSession.get(ch);
+        bh.consume(s.deviceId());
+        bh.consume(s.hasPending());
+        bh.consume(s.geofenceState());
+        bh.consume(s.nextSequence());
+    }
+}
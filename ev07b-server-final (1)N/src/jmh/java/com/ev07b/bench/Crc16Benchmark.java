@@ -0,0 +1,66 @@
+package com.ev07b.bench;
+
+import com.ev07b.util.CRC16;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Slice-by-8 CRC-CCITT over byte[], heap and direct ByteBufs, against the bit-at-a-time loop. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Crc16Benchmark {
+
+    @Param({"16", "64", "512", "1500"})
+    int size;
+
+    byte[] data;
+    ByteBuf heap;
+    ByteBuf direct;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        heap = Unpooled.wrappedBuffer(data);
+        direct = Unpooled.directBuffer(size).writeBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        direct.release();
+    }
+
+    @Benchmark
+    public int byteArray() {
+        return CRC16.crc16Ccitt(data);
+    }
+
+    @Benchmark
+    public int heapBuf() {
+        return CRC16.crc16Ccitt(heap, 0, size);
+    }
+
+    @Benchmark
+    public int directBuf() {
+        return CRC16.crc16Ccitt(direct, 0, size);
+    }
+
+    @Benchmark
+    public int bitwiseBaseline() {
+        int crc = 0;
+        for (byte b : data) {
+            crc ^= (b & 0xff) << 8;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x8000) != 0 ? ((crc << 1) ^ 0x1021) & 0xffff : (crc << 1) & 0xffff;
+            }
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ev07b.bench;
+
+import com.ev07b.util.ConcurrentLongMap;
+import com.ev07b.util.DeviceKeys;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame device lookup from the IMEI bytes in the inbound buffer, over {@code devices} known
+ * devices: building a String id and probing a ConcurrentHashMap (the former decoder + map path) vs.
+ * parsing the digits into a 64-bit key and probing a ConcurrentLongMap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DeviceKeyBenchmark {
+
+    @Param({"100000", "1000000"})
+    int devices;
+
+    ByteBuf imeis;           // 15 ASCII digits per device, back to back
+    Map<String, Object> byString;
+    ConcurrentLongMap<Object> byKey;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        imeis = Unpooled.directBuffer(devices * 15);
+        byString = new ConcurrentHashMap<>();
+        byKey = new ConcurrentLongMap<>();
+        for (int i = 0; i < devices; i++) {
+            String id = BenchFrames.imei(i);
+            imeis.writeBytes(id.getBytes(StandardCharsets.US_ASCII));
+            Object state = new Object();
+            byString.put(id, state);
+            byKey.put(DeviceKeys.of(id), state);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        imeis.release();
+    }
+
+    @Benchmark
+    public Object stringKey() {
+        int off = (next++ % devices) * 15;
+        return byString.get(imeis.toString(off, 15, StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    public Object longKey() {
+        int off = (next++ % devices) * 15;
+        return byKey.get(DeviceKeys.ofDigits(imeis, off, 15));
+    }
+}
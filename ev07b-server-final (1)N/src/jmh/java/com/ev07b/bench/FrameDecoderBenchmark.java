@@ -0,0 +1,80 @@
+package com.ev07b.bench;
+
+import com.ev07b.codec.EV07BFrameDecoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EV07BFrameDecoder driven through an EmbeddedChannel with a batch of heartbeat frames, delivered
+ * either in one read (chunk=0) or fragmented into reads of {@code chunk} bytes as a slow link would.
+ * Score is per batch of {@link #FRAMES} frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+
+    static final int FRAMES = 64;
+
+    @Param({"EV04", "LEGACY", "AUTO"})
+    EV07BFrameDecoder.Variant variant;
+
+    @Param({"0", "7", "64"})
+    int chunk;
+
+    @Param({"true", "false"})
+    boolean zeroCopy;
+
+    ByteBuf[] reads;
+    EmbeddedChannel channel;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] body = BenchFrames.heartbeat(BenchFrames.imei(i), 300_000_000 + i * 100, 1_200_000_000 - i * 100);
+            byte[] frame = variant == EV07BFrameDecoder.Variant.LEGACY ? BenchFrames.legacyFrame(body) : BenchFrames.ev04Frame(i, body);
+            stream.write(frame, 0, frame.length);
+        }
+        byte[] all = stream.toByteArray();
+        int step = chunk == 0 ? all.length : chunk;
+        reads = new ByteBuf[(all.length + step - 1) / step];
+        for (int i = 0; i < reads.length; i++) {
+            int off = i * step;
+            reads[i] = Unpooled.directBuffer(step).writeBytes(all, off, Math.min(step, all.length - off));
+        }
+        channel = new EmbeddedChannel(new EV07BFrameDecoder(zeroCopy, variant, EV07BFrameDecoder.DEFAULT_MAX_FRAME_LENGTH));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        for (ByteBuf b : reads) b.release();
+    }
+
+    @Benchmark
+    public int decodeBatch(Blackhole bh) {
+        int frames = 0;
+        for (ByteBuf read : reads) {
+            // The decoder releases what it is given; hand it a fresh view of the same bytes
+            channel.writeInbound(read.retainedDuplicate());
+            Object msg;
+            while ((msg = channel.readInbound()) != null) {
+                bh.consume(msg);
+                ReferenceCountUtil.release(msg);
+                frames++;
+            }
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ev07b.bench;
+
+import com.ev07b.net.FrameUtil;
+import com.ev07b.net.FrameWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Outbound frame assembly: byte[] + wrappedBuffer (FrameUtil) vs. pooled in-place encoding (FrameWriter). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameWriterBenchmark {
+
+    private static final byte[] ACK_BODY = { (byte) 0x7F, 0x01, 0x00 };
+
+    ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    byte[] body;
+    int seq;
+
+    @Setup
+    public void setup() {
+        body = BenchFrames.heartbeat(BenchFrames.imei(1), 300_000_000, 1_200_000_000);
+    }
+
+    @Benchmark
+    public boolean ackFrameUtil() {
+        ByteBuf b = Unpooled.wrappedBuffer(FrameUtil.buildFrame((byte) 0x00, ++seq, ACK_BODY));
+        return b.release();
+    }
+
+    @Benchmark
+    public boolean ackFrameWriterTemplate() {
+        ByteBuf b = FrameWriter.ack(alloc, ++seq);
+        return b.release();
+    }
+
+    @Benchmark
+    public boolean frameUtil() {
+        ByteBuf b = Unpooled.wrappedBuffer(FrameUtil.buildFrame((byte) 0x10, ++seq, body));
+        return b.release();
+    }
+
+    @Benchmark
+    public boolean frameWriter() {
+        ByteBuf b = FrameWriter.frame(alloc, (byte) 0x10, ++seq, body);
+        return b.release();
+    }
+}
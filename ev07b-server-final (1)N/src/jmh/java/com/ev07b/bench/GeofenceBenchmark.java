@@ -0,0 +1,145 @@
+package com.ev07b.bench;
+
+import com.ev07b.commands.DeviceConnectionManager;
+import com.ev07b.entities.GeofenceEntity;
+import com.ev07b.net.SequenceManager;
+import com.ev07b.repos.GeofenceRepository;
+import com.ev07b.services.CompiledFence;
+import com.ev07b.services.CompiledPolygon;
+import com.ev07b.services.GeofenceCache;
+import com.ev07b.services.GeofenceEvaluatorService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Geofence hot paths: the tiered circle test against a plain haversine check, polygon containment,
+ * and a full GeofenceEvaluatorService.evaluateAndNotify per GPS fix (cache hit, candidate lookup,
+ * transition tracking) for a device that moves along a track through its fences.
+ * The evaluator's per-fence console logging is sent to a null stream so the numbers show the logic.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeofenceBenchmark {
+
+    private static final String DEVICE = BenchFrames.imei(1);
+    private static final int TRACK = 1024;
+
+    @Param({"1", "32", "1000"})
+    int fences;
+
+    CompiledFence[] circles;
+    CompiledPolygon polygon;
+    double[] lat = new double[TRACK];
+    double[] lon = new double[TRACK];
+    int next;
+
+    GeofenceEvaluatorService evaluator;
+    PrintStream savedOut;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Random rnd = new Random(11);
+        List<GeofenceEntity> entities = new ArrayList<>();
+        circles = new CompiledFence[fences];
+        for (int i = 0; i < fences; i++) {
+            int radius = 200 + rnd.nextInt(800);
+            int latE7 = 300_000_000 + rnd.nextInt(1_000_000);
+            int lonE7 = 1_200_000_000 + rnd.nextInt(1_000_000);
+            int flags = (radius << 16) | (1 << 8) | ((i & 1) << 9); // enabled, alternate OUT/IN
+            byte[] kv = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN).putInt(flags).putInt(latE7).putInt(lonE7).array();
+            GeofenceEntity g = new GeofenceEntity(DEVICE, "bench-" + i, kv);
+            setId(g, i + 1L);
+            entities.add(g);
+            circles[i] = CompiledFence.compile(i + 1L, kv);
+        }
+        int n = 64;
+        int[] pLat = new int[n], pLon = new int[n];
+        for (int i = 0; i < n; i++) {
+            double a = 2 * Math.PI * i / n, r = 30_000 + rnd.nextInt(20_000);
+            pLat[i] = 300_500_000 + (int) (r * Math.sin(a));
+            pLon[i] = 1_200_500_000 + (int) (r * Math.cos(a));
+        }
+        polygon = CompiledPolygon.of(pLat, pLon);
+
+        // A wandering track across the fence area, so fixes enter and leave fences
+        double la = 30.05, lo = 120.05;
+        for (int i = 0; i < TRACK; i++) {
+            la = Math.min(30.1, Math.max(30.0, la + (rnd.nextDouble() - 0.5) * 0.004));
+            lo = Math.min(120.1, Math.max(120.0, lo + (rnd.nextDouble() - 0.5) * 0.004));
+            lat[i] = la;
+            lon[i] = lo;
+        }
+
+        GeofenceRepository repo = (GeofenceRepository) Proxy.newProxyInstance(GeofenceRepository.class.getClassLoader(),
+                new Class<?>[] { GeofenceRepository.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("findByDeviceId")) return entities;
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        GeofenceCache cache = new GeofenceCache(repo, 16, false, 0.01, 32);
+        evaluator = new GeofenceEvaluatorService(cache, new DeviceConnectionManager(), new SequenceManager(), null);
+
+        savedOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(savedOut);
+    }
+
+    private static void setId(GeofenceEntity g, long id) throws ReflectiveOperationException {
+        Field f = GeofenceEntity.class.getDeclaredField("id");
+        f.setAccessible(true);
+        f.set(g, id);
+    }
+
+    private int step() {
+        return next = (next + 1) & (TRACK - 1);
+    }
+
+    @Benchmark
+    public void evaluateFix() {
+        int i = step();
+        evaluator.evaluateAndNotify(DEVICE, lat[i], lon[i]);
+    }
+
+    /** Every fence of the device against one fix, tiered check. */
+    @Benchmark
+    public int circleTiered() {
+        int i = step(), inside = 0;
+        for (CompiledFence f : circles) {
+            if (f.circleContains(lat[i], lon[i])) inside++;
+        }
+        return inside;
+    }
+
+    /** Every fence of the device against one fix, haversine only. */
+    @Benchmark
+    public int circleHaversine() {
+        int i = step(), inside = 0;
+        for (CompiledFence f : circles) {
+            if (f.distanceMeters(lat[i], lon[i]) <= f.radius) inside++;
+        }
+        return inside;
+    }
+
+    @Benchmark
+    public boolean polygon64() {
+        int i = step();
+        return polygon.contains((int) Math.round(lat[i] * 1e7), (int) Math.round(lon[i] * 1e7));
+    }
+}
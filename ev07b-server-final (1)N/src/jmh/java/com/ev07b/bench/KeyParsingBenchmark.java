@@ -0,0 +1,68 @@
+package com.ev07b.bench;
+
+import com.ev07b.model.EV07BMessage;
+import com.ev07b.model.KeyIndex;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The key lookups DataCommandProcessor and HeartbeatProcessor do per frame: index the body once
+ * (as the decoder does), then read GPS, general-data timestamp and alarm words through the typed
+ * accessors. Covers both the zero-copy (ByteBuf slice) and byte[] message forms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyParsingBenchmark {
+
+    byte[] heartbeat;
+    byte[] data;
+    ByteBuf dataBuf;
+
+    @Setup
+    public void setup() {
+        heartbeat = BenchFrames.heartbeat(BenchFrames.imei(7), 300_000_000, 1_200_000_000);
+        // Geofence 1 alarm (bit 4) with a valid IN flag in the extend word
+        data = BenchFrames.body(0x01, BenchFrames.imei(7), 300_000_000, 1_200_000_000, 1_760_000_000L, 1L << 4, (1L << 16) | (1L << 26));
+        dataBuf = Unpooled.directBuffer(data.length).writeBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataBuf.release();
+    }
+
+    @Benchmark
+    public long heartbeatGps() {
+        EV07BMessage msg = new EV07BMessage("x", 0x10, heartbeat);
+        return msg.hasGps() ? (long) msg.gpsLatE7() + msg.gpsLonE7() : 0;
+    }
+
+    @Benchmark
+    public long dataFieldsByteArray() {
+        return dataFields(new EV07BMessage("x", 0x01, data));
+    }
+
+    @Benchmark
+    public long dataFieldsZeroCopy() {
+        KeyIndex keys = KeyIndex.build(dataBuf, 0, data.length);
+        return dataFields(new EV07BMessage("x", 0x01, dataBuf.retainedSlice(), keys, (byte) 0x10, 1));
+    }
+
+    private static long dataFields(EV07BMessage msg) {
+        try {
+            long acc = msg.generalDataTimestamp();
+            if (msg.hasGps()) acc += msg.gpsLatE7() + msg.gpsLonE7();
+            if (msg.hasAlarm()) acc += msg.alarmCode() ^ msg.alarmExtend();
+            return acc;
+        } finally {
+            msg.release();
+        }
+    }
+}
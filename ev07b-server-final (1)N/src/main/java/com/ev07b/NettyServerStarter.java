@@ -5,9 +5,14 @@ import javax.annotation.PreDestroy;
 
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
+import com.ev07b.codec.EV07BFrameDecoder;
 import com.ev07b.server.EV070Server;
 import com.ev07b.handler.EV07BBusinessHandler;
+import com.ev07b.handler.IdleSessionReaper;
+import com.ev07b.handler.OutboundGate;
+import com.ev07b.metrics.IngestionMetrics;
 
 @Component
 public class NettyServerStarter {
@@ -16,10 +21,79 @@ public class NettyServerStarter {
     @Autowired
     private EV07BBusinessHandler businessHandler;
 
+    @Autowired
+    private IngestionMetrics metrics;
+
+    @Autowired
+    private IdleSessionReaper idleReaper;
+
+    @Autowired
+    private OutboundGate outboundGate;
+
+    @Value("${app.decoder.zero-copy:true}")
+    private boolean zeroCopyDecoding;
+
+    @Value("${app.decoder.variant:AUTO}")
+    private EV07BFrameDecoder.Variant decoderVariant;
+
+    @Value("${app.decoder.max-frame-length:4096}")
+    private int maxFrameLength;
+
+    @Value("${app.netty.port:7000}")
+    private int port;
+
+    @Value("${app.netty.transport:AUTO}")
+    private EV070Server.Transport transport;
+
+    @Value("${app.netty.acceptors:1}")
+    private int acceptors;
+
+    @Value("${app.netty.boss-threads:1}")
+    private int bossThreads;
+
+    @Value("${app.netty.worker-threads:0}")
+    private int workerThreads;
+
+    @Value("${app.netty.backlog:1024}")
+    private int backlog;
+
+    @Value("${app.netty.receive-buffer-size:0}")
+    private int receiveBufferSize;
+
+    @Value("${app.netty.send-buffer-size:0}")
+    private int sendBufferSize;
+
+    @Value("${app.netty.write-buffer-low-water-mark:32768}")
+    private int writeBufferLowWaterMark;
+
+    @Value("${app.netty.write-buffer-high-water-mark:65536}")
+    private int writeBufferHighWaterMark;
+
+    @Value("${app.netty.flush.coalescing:true}")
+    private boolean flushCoalescing;
+
+    @Value("${app.netty.flush.max-deferral-us:1000}")
+    private long flushMaxDeferralMicros;
+
     @PostConstruct
     public void start() throws Exception {
         // Pass the Spring-managed handler into the server so Netty uses the bean instance
-        server = new EV070Server(7000, businessHandler);
+        EV070Server.Options options = new EV070Server.Options();
+        options.port = port;
+        options.transport = transport;
+        options.acceptors = acceptors;
+        options.bossThreads = bossThreads;
+        options.workerThreads = workerThreads;
+        options.backlog = backlog;
+        options.receiveBufferSize = receiveBufferSize;
+        options.sendBufferSize = sendBufferSize;
+        options.writeBufferLowWaterMark = writeBufferLowWaterMark;
+        options.writeBufferHighWaterMark = writeBufferHighWaterMark;
+        options.flushCoalescing = flushCoalescing;
+        options.flushMaxDeferralMicros = flushMaxDeferralMicros;
+        options.decoderVariant = decoderVariant;
+        options.maxFrameLength = maxFrameLength;
+        server = new EV070Server(options, businessHandler, zeroCopyDecoding, metrics, idleReaper, outboundGate);
         new Thread(() -> {
             try {
                 server.start();
@@ -1,7 +1,11 @@
 package com.ev07b.codec;
 
+import com.ev07b.metrics.IngestionMetrics;
 import com.ev07b.model.EV07BMessage;
+import com.ev07b.model.KeyIndex;
+import com.ev07b.net.ChannelSession;
 import com.ev07b.util.CRC16;
+import com.ev07b.util.DeviceKeys;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
@@ -10,131 +14,277 @@ import java.util.List;
 /**
  * EV07BFrameDecoder
  *
- * Decodes raw EV07B (EV04-compatible) frames:
- * [0xAB][properties][lenLow][lenHigh][checksumLE][seqLE][payload...]
+ * Single decoder for both wire variants:
+ *   EV04   [0xAB][properties][lenLE][checksumLE][seqLE][payload...]   (CRC over payload)
+ *   LEGACY [0xAB][lenBE][payload][crcBE]                               (CRC over payload)
+ * A connection either uses a configured variant or, in AUTO, locks onto the variant of the first
+ * frame whose CRC checks out.
+ *
+ * Parsing is incremental: once the frame at the reader index has a known length, later reads only
+ * compare the readable bytes against it until the frame is complete, so a slow device costs O(1)
+ * per read instead of a rescan. Garbage is skipped with {@link ByteBuf#indexOf}, and a bad header
+ * (length over maxFrameLength or CRC mismatch) only drops its 0xAB byte before resyncing, so a
+ * spurious 0xAB can't swallow the real frame behind it.
+ *
+ * Once the business handler has identified the connection (see {@link ChannelSession}), frames are
+ * stamped with the session's device id and the IMEI extraction and digit scans are skipped. Before
+ * that, the IMEI digits are parsed straight into a 64-bit device key (DeviceKeys); no String is built.
+ *
+ * In zero-copy mode the emitted message holds a retained slice of the cumulation buffer instead of
+ * a byte[] copy; whoever consumes the message must release it.
  */
 public class EV07BFrameDecoder extends ByteToMessageDecoder {
 
+    public enum Variant { AUTO, EV04, LEGACY }
+
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 4096;
+
     private static final byte HEADER = (byte) 0xAB;
+    private static final int EV04_HEADER_LENGTH = 8;   // AB props len(2) crc(2) seq(2)
+    private static final int LEGACY_HEADER_LENGTH = 3; // AB len(2)
+    private static final int LEGACY_TRAILER_LENGTH = 2;
+
+    private final boolean zeroCopy;
+    private final int maxFrameLength; // max payload length
+    private final IngestionMetrics metrics;
+    private Variant variant;
+
+    // Bytes the frame at the reader index needs before it is worth looking at again (0 = unknown)
+    private int needed;
+    private ChannelSession session;
+
+    public EV07BFrameDecoder() {
+        this(false);
+    }
+
+    public EV07BFrameDecoder(boolean zeroCopy) {
+        this(zeroCopy, Variant.EV04, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public EV07BFrameDecoder(boolean zeroCopy, Variant variant, int maxFrameLength) {
+        this(zeroCopy, variant, maxFrameLength, new IngestionMetrics());
+    }
+
+    public EV07BFrameDecoder(boolean zeroCopy, Variant variant, int maxFrameLength, IngestionMetrics metrics) {
+        this.zeroCopy = zeroCopy;
+        this.variant = variant;
+        this.maxFrameLength = maxFrameLength;
+        this.metrics = metrics;
+    }
+
+    /** Variant in use on this connection; AUTO until the first valid frame. */
+    public Variant variant() {
+        return variant;
+    }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        in.markReaderIndex();
-
-        if (in.readableBytes() < 1) {
-            return; // not enough for header
+        if (in.readableBytes() < needed) {
+            return; // still waiting for the rest of the frame we already measured
         }
+        needed = 0;
+        if (session == null) session = ChannelSession.of(ctx.channel());
 
-        byte header = in.readByte();
-        if (header != HEADER) {
-            // skip until we find header byte
-            boolean found = false;
-            while (in.isReadable()) {
-                if (in.readByte() == HEADER) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
+        // Resync on the next header byte; everything before it is garbage
+        int start = in.readerIndex();
+        if (in.getByte(start) != HEADER) {
+            int idx = in.indexOf(start, in.writerIndex(), HEADER);
+            if (idx < 0) {
+                metrics.resync(in.readableBytes());
+                in.skipBytes(in.readableBytes());
                 return;
             }
+            metrics.resync(idx - start);
+            in.readerIndex(idx);
+            start = idx;
         }
 
-        // Ensure we have minimum bytes for header + metadata
-        if (in.readableBytes() < 1 + 2 + 2 + 2) {
-            in.resetReaderIndex();
-            return;
+        switch (variant) {
+            case EV04:
+                decodeEv04(in, start, out, true);
+                break;
+            case LEGACY:
+                decodeLegacy(in, start, out, true);
+                break;
+            default:
+                decodeAuto(in, start, out);
+                break;
         }
+    }
 
-        byte properties = in.readByte(); // protocol flag bits
-        int lenLow = in.readUnsignedByte();
-        int lenHigh = in.readUnsignedByte();
-        int bodyLen = (lenHigh << 8) | lenLow;
+    private void decodeAuto(ByteBuf in, int start, List<Object> out) {
+        int readable = in.readableBytes();
+        if (readable < LEGACY_HEADER_LENGTH + 1) {
+            needed = LEGACY_HEADER_LENGTH + 1;
+            return;
+        }
+        int ev04Body = in.getUnsignedShortLE(start + 2);
+        int legacyBody = in.getUnsignedShort(start + 1);
+        int ev04Len = ev04Body <= maxFrameLength ? EV04_HEADER_LENGTH + ev04Body : -1;
+        int legacyLen = legacyBody <= maxFrameLength ? LEGACY_HEADER_LENGTH + legacyBody + LEGACY_TRAILER_LENGTH : -1;
 
-        if (bodyLen < 0 || bodyLen > 4096) {
-            ctx.fireExceptionCaught(new IllegalArgumentException("Invalid bodyLen=" + bodyLen));
+        // A complete candidate with a good CRC decides the variant for the rest of the connection
+        if (ev04Len > 0 && readable >= ev04Len && ev04CrcOk(in, start, ev04Body)) {
+            variant = Variant.EV04;
+            decodeEv04(in, start, out, false);
             return;
         }
+        if (legacyLen > 0 && readable >= legacyLen && legacyCrcOk(in, start, legacyBody)) {
+            variant = Variant.LEGACY;
+            decodeLegacy(in, start, out, false);
+            return;
+        }
+        // Otherwise wait for the shortest candidate that is still incomplete
+        int wait = Integer.MAX_VALUE;
+        if (ev04Len > readable) wait = ev04Len;
+        if (legacyLen > readable) wait = Math.min(wait, legacyLen);
+        if (wait != Integer.MAX_VALUE) {
+            needed = wait;
+            return;
+        }
+        // Neither variant fits: not a frame start. Count why, as the fixed-variant paths do
+        if (ev04Len < 0 && legacyLen < 0) {
+            metrics.oversizeFrame();
+        } else {
+            metrics.crcFailure();
+        }
+        in.skipBytes(1);
+    }
 
-        if (in.readableBytes() < 2 + 2 + bodyLen) {
-            in.resetReaderIndex();
+    private void decodeEv04(ByteBuf in, int start, List<Object> out, boolean verify) {
+        int readable = in.readableBytes();
+        if (readable < EV04_HEADER_LENGTH) {
+            needed = EV04_HEADER_LENGTH;
+            return;
+        }
+        int bodyLen = in.getUnsignedShortLE(start + 2);
+        if (bodyLen > maxFrameLength) {
+            metrics.oversizeFrame();
+            System.err.println("[Decoder] Frame length " + bodyLen + " exceeds max " + maxFrameLength + "; resyncing");
+            in.skipBytes(1);
+            return;
+        }
+        if (readable < EV04_HEADER_LENGTH + bodyLen) {
+            needed = EV04_HEADER_LENGTH + bodyLen;
+            return;
+        }
+        if (verify && !ev04CrcOk(in, start, bodyLen)) {
+            metrics.crcFailure();
+            System.err.printf("CRC mismatch: calc=%04X recv=%04X%n",
+                    CRC16.crc16Ccitt(in, start + EV04_HEADER_LENGTH, bodyLen) & 0xFFFF, in.getUnsignedShortLE(start + 4));
+            in.skipBytes(1);
             return;
         }
 
-        int checksum = in.readUnsignedShortLE();
-        int seqId = in.readUnsignedShortLE();
-        byte[] bodyBytes = new byte[bodyLen];
-        in.readBytes(bodyBytes);
+        byte properties = in.getByte(start + 1);
+        int seqId = in.getUnsignedShortLE(start + 6);
+        in.skipBytes(EV04_HEADER_LENGTH);
 
-        // Compute CRC16 (CCITT) for payload
-        int calculated = CRC16.crc16Ccitt(bodyBytes) & 0xFFFF;
-        if (calculated != (checksum & 0xFFFF)) {
-            System.err.printf("CRC mismatch: calc=%04X recv=%04X%n", calculated, checksum);
-            // optionally fire event or discard
+        // Derive fields for EV07BMessage straight from the cumulation buffer; the key index is built
+        // once here and handed to the processors with the message
+        int bodyStart = in.readerIndex();
+        int commandId = (bodyLen > 0) ? in.getUnsignedByte(bodyStart) : 0;
+        KeyIndex keys = KeyIndex.build(in, bodyStart, bodyLen);
+        String deviceId = session.deviceId();
+        long deviceKey;
+        if (deviceId != null) {
+            deviceKey = session.deviceKey();
+        } else {
+            deviceKey = extractDeviceKey(in, bodyStart, keys);
+            if (deviceKey == DeviceKeys.NONE) deviceKey = scanAsciiDigits(in, bodyStart, bodyLen);
+        }
+        out.add(message(in, deviceKey, deviceId, commandId, bodyLen, keys, properties, seqId));
+    }
+
+    private void decodeLegacy(ByteBuf in, int start, List<Object> out, boolean verify) {
+        int readable = in.readableBytes();
+        if (readable < LEGACY_HEADER_LENGTH) {
+            needed = LEGACY_HEADER_LENGTH;
+            return;
+        }
+        int len = in.getUnsignedShort(start + 1); // Big-endian length
+        if (len > maxFrameLength) {
+            metrics.oversizeFrame();
+            System.err.println("[Decoder] Frame length " + len + " exceeds max " + maxFrameLength + "; resyncing");
+            in.skipBytes(1);
+            return;
+        }
+        int frameLen = LEGACY_HEADER_LENGTH + len + LEGACY_TRAILER_LENGTH;
+        if (readable < frameLen) {
+            needed = frameLen;
+            return;
+        }
+        if (verify && !legacyCrcOk(in, start, len)) {
+            metrics.crcFailure();
+            System.out.println("[Decoder] CRC mismatch: calc=0x" + Integer.toHexString(CRC16.crc16Ccitt(in, start + LEGACY_HEADER_LENGTH, len))
+                    + " recv=0x" + Integer.toHexString(in.getUnsignedShort(start + LEGACY_HEADER_LENGTH + len)));
+            in.skipBytes(1);
             return;
         }
 
-        // Derive fields for EV07BMessage
-        int commandId = (bodyBytes.length > 0) ? (bodyBytes[0] & 0xFF) : 0;
-        String deviceId = extractDeviceIdFromKeys(bodyBytes);
-        if (deviceId == null || deviceId.isEmpty() || "UNKNOWN".equalsIgnoreCase(deviceId)) {
-            deviceId = scanAsciiDigits(bodyBytes);
-            if (deviceId == null) deviceId = "UNKNOWN";
+        in.skipBytes(LEGACY_HEADER_LENGTH);
+        int bodyStart = in.readerIndex();
+        // first byte as command id; device id is the first IMEI-like digit run
+        int commandId = len > 0 ? in.getUnsignedByte(bodyStart) : 0;
+        String deviceId = session.deviceId();
+        long deviceKey = deviceId != null ? session.deviceKey() : firstDigitRun(in, bodyStart, len);
+        out.add(message(in, deviceKey, deviceId, commandId, len, null, (byte) 0x00, 0));
+        in.skipBytes(LEGACY_TRAILER_LENGTH); // crc16
+    }
+
+    private EV07BMessage message(ByteBuf in, long deviceKey, String deviceId, int commandId, int bodyLen, KeyIndex keys,
+                                 byte properties, int seqId) {
+        metrics.frameDecoded(commandId);
+        if (zeroCopy) {
+            return new EV07BMessage(deviceKey, deviceId, commandId, in.readRetainedSlice(bodyLen), keys, properties, seqId);
         }
+        byte[] bodyBytes = new byte[bodyLen];
+        in.readBytes(bodyBytes);
+        return new EV07BMessage(deviceKey, deviceId, commandId, bodyBytes, keys, properties, seqId);
+    }
+
+    // CRC16 (CCITT) over the payload, computed in place before anything is copied out
+    private static boolean ev04CrcOk(ByteBuf in, int start, int bodyLen) {
+        int calculated = CRC16.crc16Ccitt(in, start + EV04_HEADER_LENGTH, bodyLen) & 0xFFFF;
+        return calculated == in.getUnsignedShortLE(start + 4);
+    }
 
-        EV07BMessage message = new EV07BMessage(deviceId, commandId, bodyBytes, properties, seqId);
-        out.add(message);
+    private static boolean legacyCrcOk(ByteBuf in, int start, int len) {
+        int calculated = CRC16.crc16Ccitt(in, start + LEGACY_HEADER_LENGTH, len) & 0xFFFF;
+        return calculated == in.getUnsignedShort(start + LEGACY_HEADER_LENGTH + len);
     }
 
     /**
-     * Extract Device ID (Key 0x01) according to protocol key layout.
+     * Extract Device ID (Key 0x01) using the key index built for this frame, as a device key.
      * Layout: [command][ keyLen ][ key ][ value... ] ...
      * For Device ID key: keyLen=0x10, key=0x01, value=15 ASCII digits.
      */
-    private String extractDeviceIdFromKeys(byte[] body) {
-        if (body == null || body.length < 1) return "UNKNOWN";
-        int i = 1; // skip command byte
-        try {
-            while (i < body.length) {
-                int keyLen = Byte.toUnsignedInt(body[i++]);
-                if (keyLen < 1) break; // must include at least key byte
-                if (i >= body.length) break;
-                int key = Byte.toUnsignedInt(body[i++]);
-                int valueLen = keyLen - 1;
-                if (valueLen < 0) break;
-                if (i + valueLen > body.length) break;
-
-                if (key == 0x01 && valueLen >= 8) {
-                    // Expect 15 ASCII digits for IMEI by spec (valueLen typically 15)
-                    int n = Math.min(15, valueLen);
-                    StringBuilder sb = new StringBuilder(15);
-                    for (int k = 0; k < n; k++) {
-                        int b = body[i + k] & 0xFF;
-                        if (b >= '0' && b <= '9') {
-                            sb.append((char) b);
-                        } else {
-                            // non-digit encountered; abort this key
-                            sb.setLength(0);
-                            break;
-                        }
-                    }
-                    if (sb.length() >= 6) {
-                        return sb.toString();
-                    }
-                }
-                i += valueLen; // advance to next key body
+    private long extractDeviceKey(ByteBuf buf, int bodyStart, KeyIndex keys) {
+        for (int e = 0; e < keys.size(); e++) {
+            int valueLen = keys.valueLength(e);
+            if (keys.key(e) != KeyIndex.KEY_DEVICE_ID || valueLen < 8) continue;
+            // Expect 15 ASCII digits for IMEI by spec (valueLen typically 15)
+            int off = bodyStart + keys.valueOffset(e);
+            int n = Math.min(15, valueLen);
+            int digits = 0;
+            while (digits < n) {
+                int b = buf.getUnsignedByte(off + digits);
+                if (b < '0' || b > '9') break;
+                digits++;
+            }
+            // non-digit encountered aborts this key
+            if (digits == n && n >= 6) {
+                return DeviceKeys.ofDigits(buf, off, n);
             }
-        } catch (Exception ignore) {
         }
-        return "UNKNOWN";
+        return DeviceKeys.NONE;
     }
 
     // Fallback: scan contiguous ASCII digits sequence length>=10 as IMEI-like string
-    private String scanAsciiDigits(byte[] body) {
-        if (body == null) return null;
+    private long scanAsciiDigits(ByteBuf buf, int start, int len) {
         int bestStart = -1, bestLen = 0, curStart = -1, curLen = 0;
-        for (int i = 0; i < body.length; i++) {
-            int b = body[i] & 0xFF;
+        for (int i = start; i < start + len; i++) {
+            int b = buf.getUnsignedByte(i);
             if (b >= '0' && b <= '9') {
                 if (curLen == 0) curStart = i;
                 curLen++;
@@ -146,8 +296,27 @@ public class EV07BFrameDecoder extends ByteToMessageDecoder {
         if (curLen > bestLen) { bestLen = curLen; bestStart = curStart; }
         if (bestLen >= 10 && bestStart >= 0) {
             int n = Math.min(15, bestLen);
-            return new String(body, bestStart, n);
+            return DeviceKeys.ofDigits(buf, bestStart, n);
+        }
+        return DeviceKeys.NONE;
+    }
+
+    // Legacy heuristic: first run of 6..20 ASCII digits, or NONE when there is none
+    private long firstDigitRun(ByteBuf buf, int start, int len) {
+        int runStart = -1;
+        for (int i = start; i < start + len; i++) {
+            int b = buf.getUnsignedByte(i);
+            if (b >= '0' && b <= '9') {
+                if (runStart < 0) runStart = i;
+                if (i - runStart + 1 >= 20) return DeviceKeys.ofDigits(buf, runStart, 20);
+            } else {
+                if (runStart >= 0 && i - runStart >= 6) return DeviceKeys.ofDigits(buf, runStart, i - runStart);
+                runStart = -1;
+            }
+        }
+        if (runStart >= 0 && start + len - runStart >= 6) {
+            return DeviceKeys.ofDigits(buf, runStart, start + len - runStart);
         }
-        return null;
+        return DeviceKeys.NONE;
     }
 }
@@ -0,0 +1,49 @@
+package com.ev07b.commands;
+
+import org.springframework.stereotype.Component;
+import org.springframework.beans.factory.annotation.Autowired;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import com.ev07b.model.EV07BMessage;
+
+/**
+ * AckProcessor
+ *
+ * Inbound 0x7F ACKs for commands we sent with the ACK-request bit. Matched against the connection's
+ * in-flight window on the event loop, so a freed slot is refilled without waiting for the
+ * execution stage. Body per spec: [0x7F][keyLen=0x01][status], status 0x00 = success.
+ */
+@Component
+public class AckProcessor implements CommandProcessor {
+
+    private static final int ACK_CMD = 0x7F;
+
+    @Autowired
+    private InFlightTracker inFlight;
+
+    @Override
+    public int commandId() {
+        return ACK_CMD;
+    }
+
+    @Override
+    public void onReceive(EV07BMessage msg, Channel ch) {
+        int seq = msg.getSequenceId();
+        if (!inFlight.ack(ch, seq)) {
+            System.out.println("[Ack] Unmatched ACK seq=" + seq + " from " + msg.getDeviceId());
+        }
+        ByteBuf body = msg.content();
+        if (body.readableBytes() >= 3) {
+            int status = body.getUnsignedByte(body.readerIndex() + 2);
+            if (status != 0) {
+                System.out.println("[Ack] Device " + msg.getDeviceId() + " reported status 0x" + Integer.toHexString(status) + " for seq=" + seq);
+            }
+        }
+    }
+
+    @Override
+    public void handle(EV07BMessage msg, Channel ch) {
+        // Nothing to do off the event loop
+    }
+}
@@ -0,0 +1,53 @@
+package com.ev07b.commands;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+
+import com.ev07b.metrics.IngestionMetrics;
+import com.ev07b.metrics.LatencyMetrics;
+import com.ev07b.model.EV07BMessage;
+import com.ev07b.net.FrameWriter;
+
+/**
+ * AckWriter
+ *
+ * Writes the standard 0x7F success ACK for a message that requested one (properties bit4), echoing
+ * its sequence id. Shared by the processors' onReceive hooks so ACK accounting (count, time from
+ * decode to write completion) lives in one place.
+ */
+@Component
+public class AckWriter {
+
+    @Autowired
+    private IngestionMetrics metrics;
+
+    @Autowired
+    private LatencyMetrics latency;
+
+    public static boolean ackRequested(EV07BMessage msg) {
+        return (msg.getProperties() & 0x10) != 0;
+    }
+
+    /**
+     * Writes the ACK if requested and the channel is up; returns whether one was written (also
+     * recorded on the message, see {@link EV07BMessage#isAckWritten()}).
+     */
+    public boolean ackIfRequested(EV07BMessage msg, Channel ch) {
+        if (!ackRequested(msg) || ch == null || !ch.isActive()) return false;
+        // Pre-encoded ACK (properties 0x00, no ACK for ACK)
+        ChannelFuture f = ch.writeAndFlush(FrameWriter.ack(ch.alloc(), msg.getSequenceId()));
+        msg.markAckWritten();
+        metrics.ackSent();
+        if (latency.isEnabled()) {
+            // Decode until the ACK reached the socket (includes any flush coalescing delay)
+            int cmd = msg.getCommandId();
+            long received = msg.getReceivedNanos();
+            f.addListener(done -> {
+                if (done.isSuccess()) latency.recordSince(cmd, LatencyMetrics.Stage.ACK, received);
+            });
+        }
+        return true;
+    }
+}
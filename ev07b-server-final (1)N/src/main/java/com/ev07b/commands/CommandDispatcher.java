@@ -5,31 +5,54 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.List;
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Autowired;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import com.ev07b.metrics.IngestionMetrics;
+import com.ev07b.metrics.LatencyMetrics;
 import com.ev07b.model.EV07BMessage;
 
 @Component
 public class CommandDispatcher {
     private final Map<Integer, CommandProcessor> registry = new ConcurrentHashMap<>();
+    private final IngestionMetrics metrics;
+    private final LatencyMetrics latency;
 
     @Autowired
-    public CommandDispatcher(List<CommandProcessor> processors) {
+    public CommandDispatcher(List<CommandProcessor> processors, IngestionMetrics metrics, LatencyMetrics latency) {
         processors.forEach(p -> registry.put(p.commandId(), p));
+        this.metrics = metrics;
+        this.latency = latency;
+    }
+
+    /** Runs the processor's non-blocking {@link CommandProcessor#onReceive} hook on the I/O thread. */
+    public void onReceive(EV07BMessage msg, Channel ch) {
+        CommandProcessor p = registry.get(msg.getCommandId());
+        if (p != null) {
+            p.onReceive(msg, ch);
+        }
     }
 
     public void dispatch(EV07BMessage msg, Channel ch) {
         CommandProcessor p = registry.get(msg.getCommandId());
         if (p != null) {
-            p.handle(msg, ch);
+            int cmd = p.commandId();
+            latency.recordSince(cmd, LatencyMetrics.Stage.DECODE_TO_DISPATCH, msg.getReceivedNanos());
+            long start = System.nanoTime();
+            try {
+                p.handle(msg, ch);
+            } finally {
+                latency.recordSince(cmd, LatencyMetrics.Stage.HANDLE, start);
+            }
         } else {
+            metrics.unknownCommand();
             System.out.println("[Dispatcher] Unknown command: " + msg.getCommandId());
             // Additional diagnostics: print first up to 32 bytes of payload
-            byte[] pl = msg.getPayload();
-            if (pl != null && pl.length > 0) {
-                int n = Math.min(pl.length, 32);
+            ByteBuf pl = msg.content();
+            if (pl.isReadable()) {
+                int n = Math.min(pl.readableBytes(), 32);
                 StringBuilder sb = new StringBuilder();
                 for (int i = 0; i < n; i++) {
-                    sb.append(String.format("%02x", pl[i] & 0xff));
+                    sb.append(String.format("%02x", pl.getUnsignedByte(pl.readerIndex() + i)));
                     if (i + 1 < n) sb.append(' ');
                 }
                 System.out.println("[Dispatcher] Payload[0.." + (n - 1) + "]: " + sb);
@@ -5,5 +5,12 @@ import com.ev07b.model.EV07BMessage;
 
 public interface CommandProcessor {
     int commandId();
+
+    /**
+     * Called on the channel's event loop as soon as the frame is decoded, before {@link #handle} is
+     * scheduled on the execution stage. Must not block; meant for time-critical replies such as ACKs.
+     */
+    default void onReceive(EV07BMessage msg, Channel ch) {}
+
     void handle(EV07BMessage msg, Channel ch);
 }
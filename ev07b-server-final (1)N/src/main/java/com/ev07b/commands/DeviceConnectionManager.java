@@ -1,39 +1,73 @@
 package com.ev07b.commands;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Map;
 import org.springframework.stereotype.Component;
 import io.netty.channel.Channel;
 
+import com.ev07b.net.ChannelSession;
+import com.ev07b.util.ConcurrentLongMap;
+import com.ev07b.util.DeviceKeys;
+
+/**
+ * DeviceConnectionManager
+ *
+ * Active channel per device, keyed by the 64-bit device key (DeviceKeys). The String overloads are
+ * for the REST side and convert at the boundary. Entries are removed when their channel closes
+ * (unregister with the channel, so a stale close can't evict a newer connection of the device).
+ */
 @Component
 public class DeviceConnectionManager {
-    private final Map<String, Channel> sessions = new ConcurrentHashMap<>();
-    private final Map<String, String> channelToDevice = new ConcurrentHashMap<>();
+    private final ConcurrentLongMap<Channel> sessions = new ConcurrentLongMap<>();
+
+    /** Returns the channel previously registered for the device, if any. */
+    public Channel register(long deviceKey, Channel ch) {
+        Channel previous = sessions.put(deviceKey, ch);
+        System.out.println("[DeviceConnectionManager] Registered device " + DeviceKeys.toId(deviceKey));
+        return previous;
+    }
 
-    public void register(String deviceId, Channel ch) {
-        sessions.put(deviceId, ch);
-        if (ch != null) {
-            channelToDevice.put(ch.id().asLongText(), deviceId);
+    public Channel register(String deviceId, Channel ch) {
+        return register(DeviceKeys.of(deviceId), ch);
+    }
+
+    /** Remove the device's entry if it still points at {@code ch}; returns whether it did. */
+    public boolean unregister(long deviceKey, Channel ch) {
+        boolean removed = sessions.remove(deviceKey, ch);
+        if (removed) {
+            System.out.println("[DeviceConnectionManager] Unregistered device " + DeviceKeys.toId(deviceKey));
         }
-        System.out.println("[DeviceConnectionManager] Registered device " + deviceId);
+        return removed;
     }
 
     public void unregister(String deviceId) {
-        sessions.remove(deviceId);
+        sessions.remove(DeviceKeys.peek(deviceId));
         System.out.println("[DeviceConnectionManager] Unregistered device " + deviceId);
     }
 
+    public Channel getChannel(long deviceKey) {
+        return sessions.get(deviceKey);
+    }
+
     public Channel getChannel(String deviceId) {
-        return sessions.get(deviceId);
+        return sessions.get(DeviceKeys.peek(deviceId));
     }
 
     public boolean isConnected(String deviceId) {
-        Channel ch = sessions.get(deviceId);
+        Channel ch = getChannel(deviceId);
         return ch != null && ch.isActive();
     }
 
+    /** Visits every registered (device key, channel) pair; channels may have closed meanwhile. */
+    public void forEach(ConcurrentLongMap.EntryConsumer<? super Channel> action) {
+        sessions.forEach(action);
+    }
+
+    /** Number of devices with a registered channel. */
+    public int size() {
+        return sessions.size();
+    }
+
+    /** Device id bound to the channel's session (the channel-to-device mapping lives on the channel). */
     public String getDeviceId(Channel ch) {
-        if (ch == null) return null;
-        return channelToDevice.get(ch.id().asLongText());
+        return ChannelSession.deviceId(ch);
     }
 }
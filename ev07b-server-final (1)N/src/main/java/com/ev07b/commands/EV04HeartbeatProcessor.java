@@ -3,13 +3,10 @@ package com.ev07b.commands;
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Autowired;
 import io.netty.channel.Channel;
-import io.netty.buffer.Unpooled;
 
 import com.ev07b.model.EV07BMessage;
 import com.ev07b.services.DeviceService;
-import com.ev07b.repos.CommandLogRepository;
-import com.ev07b.entities.CommandLogEntity;
-import com.ev07b.net.FrameUtil;
+import com.ev07b.services.CommandLogWriter;
 
 /**
  * EV04HeartbeatProcessor
@@ -26,13 +23,22 @@ public class EV04HeartbeatProcessor implements CommandProcessor {
     private DeviceService deviceService;
 
     @Autowired
-    private CommandLogRepository logRepo;
+    private CommandLogWriter commandLog;
+
+    @Autowired
+    private AckWriter ackWriter;
 
     @Override
     public int commandId() {
         return SERVICES_CMD;
     }
 
+    @Override
+    public void onReceive(EV07BMessage msg, Channel ch) {
+        // If ACK requested (properties bit4), respond with Negative Response (0x7F) success code (0x00)
+        ackWriter.ackIfRequested(msg, ch);
+    }
+
     @Override
     public void handle(EV07BMessage msg, Channel ch) {
         String deviceId = msg.getDeviceId();
@@ -42,16 +48,6 @@ public class EV04HeartbeatProcessor implements CommandProcessor {
         deviceService.touch(deviceId);
 
         // Log inbound services message
-        logRepo.save(new CommandLogEntity(deviceId, msg.getCommandId(), payload));
-
-        // If ACK requested (properties bit4), respond with Negative Response (0x7F) success code (0x00)
-        boolean ackRequested = (msg.getProperties() & 0x10) != 0;
-        if (ackRequested && ch != null && ch.isActive()) {
-            byte[] ackBody = new byte[] { (byte) 0x7F, 0x01, 0x00 };
-            byte properties = 0x00; // don't request ACK for ACK
-            int seq = msg.getSequenceId();
-            byte[] frame = FrameUtil.buildFrame(properties, seq, ackBody);
-            ch.writeAndFlush(Unpooled.wrappedBuffer(frame));
-        }
+        commandLog.append(deviceId, msg.getCommandId(), payload);
     }
 }
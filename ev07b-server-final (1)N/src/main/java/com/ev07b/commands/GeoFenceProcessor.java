@@ -5,11 +5,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import io.netty.channel.Channel;
 import com.ev07b.model.EV07BMessage;
 import com.ev07b.repos.GeofenceRepository;
-import com.ev07b.repos.CommandLogRepository;
 import com.ev07b.entities.GeofenceEntity;
-import com.ev07b.entities.CommandLogEntity;
 import com.ev07b.services.CommandService;
 import com.ev07b.services.DeviceService;
+import com.ev07b.services.GeofenceCache;
+import com.ev07b.services.CommandLogWriter;
 import com.ev07b.net.FrameUtil;
 import com.ev07b.commands.DeviceConnectionManager;
 
@@ -29,7 +29,10 @@ public class GeoFenceProcessor implements CommandProcessor {
     private GeofenceRepository geofenceRepo;
 
     @Autowired
-    private CommandLogRepository logRepo;
+    private CommandLogWriter commandLog;
+
+    @Autowired
+    private AckWriter ackWriter;
 
     @Autowired
     private CommandService commandService;
@@ -40,11 +43,20 @@ public class GeoFenceProcessor implements CommandProcessor {
     @Autowired
     private DeviceConnectionManager connMgr;
 
+    @Autowired
+    private GeofenceCache geofenceCache;
+
     @Override
     public int commandId() {
         return GEOFENCE_CMD;
     }
 
+    @Override
+    public void onReceive(EV07BMessage msg, Channel ch) {
+        // If ACK bit requested, send standard 0x7F success ACK echoing sequence id
+        ackWriter.ackIfRequested(msg, ch);
+    }
+
     @Override
     public void handle(EV07BMessage msg, Channel ch) {
         String deviceId = msg.getDeviceId();
@@ -54,7 +66,7 @@ public class GeoFenceProcessor implements CommandProcessor {
         deviceService.touch(deviceId);
 
         // Save a log entry
-        logRepo.save(new CommandLogEntity(deviceId, msg.getCommandId(), payload));
+        commandLog.append(deviceId, msg.getCommandId(), payload);
 
         // Parse geofence(s) from payload (this will vary depending on actual protocol)
         List<String> parsed = parseGeoPayload(payload);
@@ -62,21 +74,21 @@ public class GeoFenceProcessor implements CommandProcessor {
         // Persist a GeofenceEntity for now with raw payload and a simple name
         GeofenceEntity g = new GeofenceEntity(deviceId, "geofence-" + System.currentTimeMillis(), payload);
         geofenceRepo.save(g);
+        geofenceCache.invalidate(deviceId);
         System.out.println("[GeoFenceProcessor] Saved geofence for device " + deviceId + ", points=" + parsed.size());
 
-        // If ACK bit requested, send standard 0x7F success ACK echoing sequence id
-        boolean ackRequested = (msg.getProperties() & 0x10) != 0;
-        if (ackRequested) {
-            byte[] ack = new byte[] { (byte)0x7F, 0x01, 0x00 };
-            byte[] frame = FrameUtil.buildFrame((byte)0x00, msg.getSequenceId(), ack);
-            if (ch != null && ch.isActive()) {
-                ch.writeAndFlush(io.netty.buffer.Unpooled.wrappedBuffer(frame));
-            } else {
-                commandService.queuePending(deviceId, frame);
-            }
+        // ACK was written from onReceive unless the channel was already gone: then queue it for the next session
+        if (AckWriter.ackRequested(msg) && !msg.isAckWritten()) {
+            commandService.queuePending(deviceId, ackFrame(msg));
         }
     }
 
+    // byte[] form for the pending store; live channels get AckWriter
+    private static byte[] ackFrame(EV07BMessage msg) {
+        byte[] ack = new byte[] { (byte)0x7F, 0x01, 0x00 };
+        return FrameUtil.buildFrame((byte)0x00, msg.getSequenceId(), ack);
+    }
+
     private List<String> parseGeoPayload(byte[] payload) {
         List<String> out = new ArrayList<>();
         if (payload == null || payload.length == 0) return out;
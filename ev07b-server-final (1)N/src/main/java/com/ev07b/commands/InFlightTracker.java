@@ -0,0 +1,384 @@
+package com.ev07b.commands;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+import com.ev07b.handler.OrderedDispatchExecutor;
+import com.ev07b.handler.OutboundGate;
+import com.ev07b.metrics.IngestionMetrics;
+import com.ev07b.net.ChannelSession;
+import com.ev07b.net.FrameWriter;
+import com.ev07b.services.CommandService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InFlightTracker
+ *
+ * Tracks outbound commands that request an ACK (properties bit4) until the device's 0x7F ACK with
+ * the same sequence id comes back. Each connection gets a window (kept in its ChannelSession) of up
+ * to app.outbound.window unacknowledged commands, so several can be pipelined; further commands wait
+ * in a bounded backlog and go out as ACKs free slots.
+ *
+ * Unacknowledged commands are re-sent with the same sequence id from a shared HashedWheelTimer, the
+ * timeout growing by backoff-multiplier per attempt. After max-retries the command leaves the window
+ * and is stored as pending for the device's next connection. When the channel closes, everything
+ * still in its window or backlog is stored as pending (one batch) and delivered on reconnect.
+ *
+ * A transmission held back by the OutboundGate and then moved to the pending store (write promise
+ * failed with SpilledException) takes its command out of the window: the gate's pending row is the
+ * command's only copy. A command is not re-sent while its previous transmission is still held back,
+ * so the gate never holds two copies of it.
+ */
+@Component
+public class InFlightTracker {
+
+    private final int windowSize;
+    private final int backlogLimit;
+    private final long ackTimeoutMs;
+    private final int maxRetries;
+    private final double backoffMultiplier;
+    private final long maxBackoffMs;
+    private final HashedWheelTimer timer;
+    private final IngestionMetrics metrics;
+    private final OrderedDispatchExecutor stage;
+    private final ApplicationContext ctx;
+
+    // Looked up on first use: CommandService hands its ACK-requested pending frames to this tracker
+    private volatile CommandService commandService;
+
+    @Autowired
+    public InFlightTracker(@Value("${app.outbound.window:4}") int windowSize,
+                           @Value("${app.outbound.backlog-limit:64}") int backlogLimit,
+                           @Value("${app.outbound.ack-timeout-ms:5000}") long ackTimeoutMs,
+                           @Value("${app.outbound.max-retries:3}") int maxRetries,
+                           @Value("${app.outbound.backoff-multiplier:2.0}") double backoffMultiplier,
+                           @Value("${app.outbound.max-backoff-ms:60000}") long maxBackoffMs,
+                           @Value("${app.outbound.tick-ms:100}") long tickMs,
+                           IngestionMetrics metrics,
+                           OrderedDispatchExecutor stage,
+                           ApplicationContext ctx) {
+        this.windowSize = Math.max(1, windowSize);
+        this.backlogLimit = Math.max(0, backlogLimit);
+        this.ackTimeoutMs = Math.max(1, ackTimeoutMs);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMultiplier = Math.max(1.0, backoffMultiplier);
+        this.maxBackoffMs = Math.max(this.ackTimeoutMs, maxBackoffMs);
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("ev07b-retransmit-wheel", true),
+                Math.max(10, tickMs), TimeUnit.MILLISECONDS);
+        this.metrics = metrics;
+        this.stage = stage;
+        this.ctx = ctx;
+    }
+
+    /**
+     * Send {@code frame} (a finished frame carrying {@code seq}) on {@code ch}. ACK-requested frames
+     * on an identified connection are tracked; anything else is just written. With {@code flush}
+     * false the caller flushes (e.g. after writing a batch).
+     */
+    public void send(Channel ch, int seq, byte[] frame, boolean flush) {
+        ChannelSession session = ChannelSession.get(ch);
+        if (session == null || !session.isIdentified() || !ackRequested(frame)) {
+            write(ch, frame, seq, flush);
+            return;
+        }
+        track(ch, session, new Entry(seq, frame), null, flush);
+    }
+
+    /**
+     * Like {@link #send(Channel, int, byte[], boolean)} for a frame just built in a buffer (ideally
+     * from {@code ch.alloc()}); takes ownership of {@code frame}. The buffer itself is written;
+     * a byte[] copy is kept only when the frame is tracked, for retransmission and the pending store.
+     *
+     * The returned future completes with the first transmission: when it is written, or (failed
+     * with {@link OutboundGate.SpilledException}) when the command went to the pending store instead.
+     */
+    public ChannelFuture send(Channel ch, int seq, ByteBuf frame, boolean flush) {
+        ChannelSession session = ChannelSession.get(ch);
+        if (session == null || !session.isIdentified() || !ackRequested(frame)) {
+            return flush ? ch.writeAndFlush(frame) : ch.write(frame);
+        }
+        return track(ch, session, new Entry(seq, ByteBufUtil.getBytes(frame)), frame, flush);
+    }
+
+    // buf, when not null, is the first transmission of e.frame; released if it isn't written now
+    private ChannelFuture track(Channel ch, ChannelSession session, Entry e, ByteBuf buf, boolean flush) {
+        Window w = (Window) session.outboundWindow(() -> new Window(session.deviceId(), ch, windowSize));
+        ChannelFuture first = null;
+        synchronized (w) {
+            if (w.closed) {
+                // stored below
+            } else if (w.inFlight < windowSize) {
+                first = start(w, e, buf, flush);
+                buf = null;
+            } else if (w.backlog.size() < backlogLimit) {
+                e.firstWrite = ch.newPromise();
+                first = e.firstWrite;
+                w.backlog.add(e);
+            }
+        }
+        if (buf != null) buf.release();
+        if (first == null) {
+            storePending(w.deviceId, List.of(e.frame), false);
+            first = ch.newFailedFuture(OutboundGate.SPILLED);
+        }
+        return first;
+    }
+
+    /** Inbound 0x7F from {@code ch} acknowledging {@code seq}; returns whether it matched. */
+    public boolean ack(Channel ch, int seq) {
+        ChannelSession session = ChannelSession.get(ch);
+        Window w = session == null ? null : (Window) session.outboundWindow();
+        boolean matched = false;
+        if (w != null) {
+            synchronized (w) {
+                Entry e = w.remove(seq);
+                if (e != null) {
+                    matched = true;
+                    if (e.timeout != null) e.timeout.cancel();
+                    promote(w);
+                }
+            }
+        }
+        if (matched) {
+            metrics.commandAcked();
+        } else {
+            metrics.unmatchedAck();
+        }
+        return matched;
+    }
+
+    /** Channel closed: store everything still unacknowledged or waiting for the device's next connection. */
+    public void channelClosed(Channel ch) {
+        ChannelSession session = ChannelSession.get(ch);
+        Window w = session == null ? null : (Window) session.outboundWindow();
+        if (w == null) return;
+        List<byte[]> frames = new ArrayList<>();
+        List<ChannelPromise> neverSent = new ArrayList<>();
+        synchronized (w) {
+            if (w.closed) return;
+            w.closed = true;
+            for (int i = 0; i < w.slots.length; i++) {
+                Entry e = w.slots[i];
+                if (e == null) continue;
+                if (e.timeout != null) e.timeout.cancel();
+                frames.add(e.frame);
+                w.slots[i] = null;
+            }
+            w.inFlight = 0;
+            for (Entry e; (e = w.backlog.poll()) != null; ) {
+                frames.add(e.frame);
+                if (e.firstWrite != null) neverSent.add(e.firstWrite);
+            }
+        }
+        for (ChannelPromise p : neverSent) p.tryFailure(OutboundGate.SPILLED);
+        if (!frames.isEmpty()) {
+            System.out.println("[InFlight] Channel of " + w.deviceId + " closed with " + frames.size() + " unacknowledged command(s); stored as pending");
+            storePending(w.deviceId, frames, false);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        timer.stop();
+    }
+
+    public static boolean ackRequested(byte[] frame) {
+        return frame.length > 1 && (frame[1] & 0x10) != 0;
+    }
+
+    public static boolean ackRequested(ByteBuf frame) {
+        return frame.readableBytes() > 1 && (frame.getByte(frame.readerIndex() + 1) & 0x10) != 0;
+    }
+
+    // Caller holds the window's lock. buf, when not null, is e.frame already in a buffer
+    private ChannelFuture start(Window w, Entry e, ByteBuf buf, boolean flush) {
+        w.add(e);
+        metrics.commandTracked();
+        schedule(w, e, ackTimeoutMs);
+        ChannelFuture f = buf == null ? write(w.ch, e.frame, e.seq, flush) : flush ? w.ch.writeAndFlush(buf) : w.ch.write(buf);
+        ChannelPromise promised = e.firstWrite;
+        if (promised != null) {
+            // Came from the backlog: report the transmission to whoever holds the send() future
+            e.firstWrite = null;
+            f.addListener(done -> {
+                if (done.isSuccess()) {
+                    promised.trySuccess();
+                } else {
+                    promised.tryFailure(done.cause());
+                }
+            });
+        }
+        transmit(w, e, f);
+        return f;
+    }
+
+    // Caller holds the window's lock
+    private void transmit(Window w, Entry e, ChannelFuture f) {
+        e.lastWrite = f;
+        f.addListener(done -> {
+            if (done.cause() instanceof OutboundGate.SpilledException) spilled(w, e);
+        });
+    }
+
+    // The gate stored this transmission as pending: the command is no longer ours to retry or store
+    private void spilled(Window w, Entry e) {
+        synchronized (w) {
+            if (w.closed || !w.contains(e)) return;
+            w.remove(e.seq);
+            if (e.timeout != null) e.timeout.cancel();
+            promote(w);
+        }
+    }
+
+    // Caller holds the window's lock
+    private void promote(Window w) {
+        boolean wrote = false;
+        while (w.inFlight < windowSize && !w.backlog.isEmpty()) {
+            start(w, w.backlog.poll(), null, false);
+            wrote = true;
+        }
+        if (wrote) w.ch.flush();
+    }
+
+    private void schedule(Window w, Entry e, long delayMs) {
+        try {
+            e.timeout = timer.newTimeout(t -> expired(w, e), delayMs, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException | RejectedExecutionException stopped) {
+            // Shutting down; the entry stays in the window until the channel closes
+        }
+    }
+
+    // Runs on the wheel thread
+    private void expired(Window w, Entry e) {
+        boolean giveUp;
+        synchronized (w) {
+            if (w.closed || !w.contains(e)) return;
+            if (e.lastWrite != null && !e.lastWrite.isDone() && w.ch.isActive()) {
+                // Still held back by the OutboundGate: the device can't have seen it yet
+                schedule(w, e, ackTimeoutMs);
+                return;
+            }
+            giveUp = e.attempts >= maxRetries || !w.ch.isActive();
+            if (giveUp) {
+                w.remove(e.seq);
+                promote(w);
+            } else {
+                e.attempts++;
+                metrics.retransmit();
+                long delay = (long) Math.min(maxBackoffMs, ackTimeoutMs * Math.pow(backoffMultiplier, e.attempts));
+                schedule(w, e, delay);
+                transmit(w, e, write(w.ch, e.frame, e.seq, true));
+            }
+        }
+        if (giveUp) {
+            metrics.commandExpired();
+            System.out.println("[InFlight] No ACK from " + w.deviceId + " for seq=" + e.seq + " after " + (e.attempts + 1)
+                    + " attempt(s); stored as pending");
+            storePending(w.deviceId, List.of(e.frame), true);
+        }
+    }
+
+    private static ChannelFuture write(Channel ch, byte[] frame, int seq, boolean flush) {
+        ByteBuf buf = FrameWriter.fromTemplate(ch.alloc(), frame, seq);
+        return flush ? ch.writeAndFlush(buf) : ch.write(buf);
+    }
+
+    // The pending store is a JPA/JDBC write: keep it off the event loop and the wheel thread. Commands
+    // the live connection didn't acknowledge wait for the next connection; the rest are delivered to
+    // whichever connection the device has (e.g. one that replaced a closed channel)
+    private void storePending(String deviceId, List<byte[]> frames, boolean forReconnect) {
+        stage.execute(deviceId, () -> {
+            try {
+                CommandService cs = commandService;
+                if (cs == null) commandService = cs = ctx.getBean(CommandService.class);
+                List<String> ids = new ArrayList<>(frames.size());
+                for (int i = 0; i < frames.size(); i++) ids.add(deviceId);
+                if (forReconnect) {
+                    cs.queueForReconnect(ids, frames);
+                } else {
+                    cs.queuePending(ids, frames);
+                }
+            } catch (Exception ex) {
+                System.err.println("[InFlight] Failed to store " + frames.size() + " command(s) for " + deviceId + ": " + ex.getMessage());
+            }
+        });
+    }
+
+    /** Commands of one connection: a small slot table keyed by sequence id, plus the backlog. */
+    private static final class Window {
+        final String deviceId;
+        final Channel ch;
+        final Entry[] slots;
+        final ArrayDeque<Entry> backlog = new ArrayDeque<>();
+        int inFlight;
+        boolean closed;
+
+        Window(String deviceId, Channel ch, int size) {
+            this.deviceId = deviceId;
+            this.ch = ch;
+            this.slots = new Entry[size];
+        }
+
+        // Only called with a free slot (inFlight < slots.length)
+        void add(Entry e) {
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] == null) {
+                    slots[i] = e;
+                    inFlight++;
+                    return;
+                }
+            }
+        }
+
+        Entry remove(int seq) {
+            for (int i = 0; i < slots.length; i++) {
+                Entry e = slots[i];
+                if (e != null && e.seq == seq) {
+                    slots[i] = null;
+                    inFlight--;
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        boolean contains(Entry e) {
+            for (Entry x : slots) {
+                if (x == e) return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Entry {
+        final int seq;
+        final byte[] frame;
+        int attempts;
+        Timeout timeout;
+        ChannelFuture lastWrite;
+        ChannelPromise firstWrite; // backlogged send() whose caller waits for the first transmission
+
+        Entry(int seq, byte[] frame) {
+            this.seq = seq;
+            this.frame = frame;
+        }
+    }
+}
@@ -10,15 +10,16 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.util.List;
 
 import com.ev07b.model.EV07BMessage;
 import com.ev07b.commands.CommandDispatcher;
 import com.ev07b.commands.DeviceConnectionManager;
+import com.ev07b.commands.InFlightTracker;
+import com.ev07b.net.ChannelSession;
+import com.ev07b.net.SequenceManager;
+import com.ev07b.util.DeviceKeys;
 import com.ev07b.services.DeviceService;
 import com.ev07b.services.CommandService;
-import com.ev07b.repos.PendingCommandRepository;
-import com.ev07b.entities.PendingCommandEntity;
 
 /**
  * EV07BBusinessHandler
@@ -26,6 +27,16 @@ import com.ev07b.entities.PendingCommandEntity;
  * Core business logic for incoming EV07B messages.
  * Handles registration, heartbeats, and pending command delivery.
  *
+ * Device resolution, channel registration and ACKs happen on the event loop. A channel is resolved
+ * once: the first frame with a device id registers it and binds its ChannelSession, later frames
+ * take the id from the session without touching the connection maps. Everything that may
+ * block (presence, pending commands, processors) is handed to the OrderedDispatchExecutor keyed by
+ * device id (by channel id until the channel is identified, then handed off to the device id), so
+ * messages of one device stay in order without stalling other channels. While the stage is saturated
+ * the channel stops reading until the stage has drained. When a channel closes its registration is
+ * removed and the device is queued for a batched disconnect mark (see IdleSessionReaper); a reconnect
+ * replaces and closes the device's previous channel.
+ *
  * This class is @Sharable because a single Spring bean is reused
  * across multiple Netty channels.
  */
@@ -39,7 +50,10 @@ public class EV07BBusinessHandler extends SimpleChannelInboundHandler<EV07BMessa
     private final DeviceService deviceService;
     private final DeviceConnectionManager connMgr;
     private final CommandService commandService;
-    private final PendingCommandRepository pendingRepo;
+    private final OrderedDispatchExecutor stage;
+    private final SequenceManager sequenceManager;
+    private final IdleSessionReaper reaper;
+    private final InFlightTracker inFlight;
 
     @Autowired
     public EV07BBusinessHandler(
@@ -47,13 +61,21 @@ public class EV07BBusinessHandler extends SimpleChannelInboundHandler<EV07BMessa
             DeviceService deviceService,
             DeviceConnectionManager connMgr,
             CommandService commandService,
-            PendingCommandRepository pendingRepo) {
+            OrderedDispatchExecutor stage,
+            SequenceManager sequenceManager,
+            IdleSessionReaper reaper,
+            InFlightTracker inFlight) {
 
+        // Messages may hold a slice of the pooled inbound buffer; released explicitly after dispatch
+        super(false);
         this.ctx = ctx;
         this.deviceService = deviceService;
         this.connMgr = connMgr;
         this.commandService = commandService;
-        this.pendingRepo = pendingRepo;
+        this.stage = stage;
+        this.sequenceManager = sequenceManager;
+        this.reaper = reaper;
+        this.inFlight = inFlight;
     }
 
     @PostConstruct
@@ -63,70 +85,106 @@ public class EV07BBusinessHandler extends SimpleChannelInboundHandler<EV07BMessa
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx0, EV07BMessage msg) throws Exception {
-        Channel ch = ctx0.channel();
-        String deviceId = msg.getDeviceId();
-        String resolvedId = deviceId;
-        boolean msgIdIsUnknown = resolvedId != null && resolvedId.equalsIgnoreCase("UNKNOWN");
-        if (resolvedId == null || resolvedId.isEmpty() || msgIdIsUnknown) {
-            // Fallback to last known mapping for this channel
-            String fromChannel = connMgr.getDeviceId(ch);
-            if (fromChannel != null && !fromChannel.isEmpty()) {
-                resolvedId = fromChannel;
-                System.out.println("[Business] DeviceId resolved from channel " + ch.id().asShortText() + ": " + resolvedId + (msgIdIsUnknown?" (message had UNKNOWN)":""));
-            } else {
-                System.out.println("[Business] No deviceId in message (or UNKNOWN) and no mapping for channel " + ch.id().asShortText());
-            }
-        } else {
-            System.out.println("[Business] DeviceId from message: " + deviceId);
+        boolean handedOff = false;
+        try {
+            handedOff = handleMessage(ctx0, msg);
+        } finally {
+            if (!handedOff) msg.release();
         }
+    }
 
-        if (resolvedId != null && !resolvedId.isEmpty() && !resolvedId.equalsIgnoreCase("UNKNOWN")) {
-            // Register active channel for this device (do not register UNKNOWN)
-            connMgr.register(resolvedId, ch);
-
-            // Update last-seen timestamp
-            deviceService.touch(resolvedId);
-
-            // Check for pending commands
-            List<PendingCommandEntity> pending = pendingRepo.findByDeviceId(resolvedId);
-            for (PendingCommandEntity p : pending) {
-                if (ch.isActive()) {
-                    byte[] payload = p.getPayload();
-                    if (payload != null && payload.length > 0) {
-                        ch.writeAndFlush(io.netty.buffer.Unpooled.wrappedBuffer(payload));
-                    }
-                    pendingRepo.delete(p);
+    /** Returns true once the message (and its release) has been handed to the execution stage. */
+    private boolean handleMessage(ChannelHandlerContext ctx0, EV07BMessage msg) {
+        Channel ch = ctx0.channel();
+        ChannelSession session = ChannelSession.of(ch);
+        String resolvedId;
+        boolean identified;
+        if (session.isIdentified()) {
+            // Known connection: the decoder has already stamped the session's id on the message
+            resolvedId = session.deviceId();
+            identified = true;
+        } else {
+            long key = msg.getDeviceKey();
+            identified = key != DeviceKeys.NONE;
+            resolvedId = identified ? msg.getDeviceId() : null;
+            if (identified) {
+                System.out.println("[Business] DeviceId from message: " + resolvedId);
+                // Register active channel for this device (do not register UNKNOWN) and bind the session
+                Channel previous = connMgr.register(key, ch);
+                if (previous != null && previous != ch) {
+                    // Reconnect while the old connection is half-open: drop it; its close won't touch the new entry
+                    System.out.println("[Business] Device " + resolvedId + " reconnected, closing previous channel " + previous.id().asShortText());
+                    previous.close();
                 }
+                session.identify(key, resolvedId, sequenceManager.counter(key), commandService.hasPending(resolvedId));
+                // Frames staged under the channel key before this one still run first
+                stage.handOff(ch.id().asLongText(), resolvedId);
+            } else {
+                System.out.println("[Business] No deviceId in message (or UNKNOWN) and channel " + ch.id().asShortText() + " not identified yet");
             }
         }
-
-        // If we resolved a better device id, wrap a new message to pass downstream
         EV07BMessage toDispatch = msg;
-        if ((deviceId == null || deviceId.isEmpty() || deviceId.equalsIgnoreCase("UNKNOWN")) && resolvedId != null && !resolvedId.isEmpty()) {
-            toDispatch = new EV07BMessage(
-                    resolvedId,
-                    msg.getCommandId(),
-                    msg.getPayload(),
-                    msg.getProperties(),
-                    msg.getSequenceId());
+        if (identified && msg.getDeviceKey() != session.deviceKey()) {
+            // Decoded in the same read as the identifying frame, before the session was bound
+            toDispatch = msg.withDevice(session.deviceKey(), resolvedId);
         }
 
         if (resolvedId != null && !resolvedId.isEmpty()) {
             System.out.println("[Business] Dispatch cmd=0x" + Integer.toHexString(toDispatch.getCommandId()) + " to device " + resolvedId);
         }
 
-        // Dispatch to the appropriate command handler
-        if (dispatcher != null) {
-            dispatcher.dispatch(toDispatch, ch);
-        } else {
+        if (dispatcher == null) {
             System.err.println("[Netty] CommandDispatcher not initialized yet");
+            return false;
+        }
+
+        // Time-critical replies (ACKs) go out from the I/O thread right away
+        dispatcher.onReceive(toDispatch, ch);
+
+        // Blocking work runs on the execution stage, serialized per device (or per channel until identified)
+        final EV07BMessage task = toDispatch;
+        final String deviceKey = identified ? resolvedId : ch.id().asLongText();
+        final String processId = resolvedId;
+        stage.execute(deviceKey, () -> {
+            try {
+                if (identified) {
+                    process(processId, ch);
+                }
+                // Dispatch to the appropriate command handler
+                dispatcher.dispatch(task, ch);
+            } finally {
+                task.release();
+            }
+        }, task::release);
+        if (stage.isSaturated() && ch.config().isAutoRead()) {
+            // Backpressure: stop reading from this device until the stage has caught up
+            ch.config().setAutoRead(false);
+            stage.whenDrained(() -> {
+                if (ch.isWritable()) ch.config().setAutoRead(true); // else OutboundGate resumes it
+            });
         }
+        return true;
+    }
+
+    private void process(String resolvedId, Channel ch) {
+        // Update last-seen timestamp
+        deviceService.touch(resolvedId);
+
+        // Deliver pending commands; only queries the DB when the in-memory index says something is queued
+        commandService.deliverPending(resolvedId, ch);
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx0) throws Exception {
         Channel ch = ctx0.channel();
         System.out.println("[Netty] Channel inactive: " + ch.remoteAddress());
+        ChannelSession session = ChannelSession.get(ch);
+        // Unacknowledged commands go back to the pending store for the next connection
+        inFlight.channelClosed(ch);
+        // Only the channel still registered for the device removes the entry and marks it offline
+        if (session != null && session.isIdentified() && connMgr.unregister(session.deviceKey(), ch)) {
+            reaper.disconnected(session.deviceId());
+        }
         super.channelInactive(ctx0);
     }
 
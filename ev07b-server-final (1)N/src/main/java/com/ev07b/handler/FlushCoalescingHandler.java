@@ -0,0 +1,125 @@
+package com.ev07b.handler;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FlushCoalescingHandler
+ *
+ * Holds back flushes issued while a read batch is being processed (ACKs written from channelRead,
+ * pending commands delivered inline) and issues a single flush at channelReadComplete, so a device
+ * that pipelines several frames in one TCP read gets its replies in one write syscall. A deferred
+ * flush is never held longer than maxDeferralNanos: the next flush request past that bound goes
+ * through immediately. Flushes outside a read batch (e.g. from the dispatch pool) pass straight on.
+ *
+ * Must sit ahead of the decoder (at the head of the pipeline) so it sees every inbound read and
+ * every outbound flush. Stateful; one instance per channel.
+ */
+public class FlushCoalescingHandler extends ChannelDuplexHandler {
+
+    /** Shared across all channels of a server. */
+    public static final class Counters {
+        private final LongAdder requested = new LongAdder();
+        private final LongAdder issued = new LongAdder();
+        private final LongAdder deadlineFlushes = new LongAdder();
+
+        /** flush() calls made by handlers. */
+        public long getRequested() { return requested.sum(); }
+        /** flush() calls passed to the transport, i.e. write syscalls. */
+        public long getIssued() { return issued.sum(); }
+        /** Issued flushes forced by the deferral bound rather than by readComplete. */
+        public long getDeadlineFlushes() { return deadlineFlushes.sum(); }
+        public long getSaved() { return Math.max(0, getRequested() - getIssued()); }
+
+        @Override
+        public String toString() {
+            return "requested=" + getRequested() + " issued=" + getIssued() + " deadline=" + getDeadlineFlushes();
+        }
+    }
+
+    private final long maxDeferralNanos;
+    private final Counters counters;
+
+    private boolean readInProgress;
+    private boolean flushPending;
+    private long firstDeferredAt;
+
+    public FlushCoalescingHandler(long maxDeferral, TimeUnit unit, Counters counters) {
+        this.maxDeferralNanos = unit.toNanos(Math.max(0, maxDeferral));
+        this.counters = counters;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        readInProgress = false;
+        flushIfPending(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        counters.requested.increment();
+        if (!readInProgress) {
+            flushPending = false;
+            issue(ctx);
+            return;
+        }
+        long now = System.nanoTime();
+        if (!flushPending) {
+            flushPending = true;
+            firstDeferredAt = now;
+        }
+        if (now - firstDeferredAt >= maxDeferralNanos) {
+            flushPending = false;
+            counters.deadlineFlushes.increment();
+            issue(ctx);
+        }
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        // Don't let queued ACKs die with the channel
+        flushIfPending(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfPending(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // Outbound buffer crossed the high water mark: push out what we're holding
+        if (!ctx.channel().isWritable()) flushIfPending(ctx);
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushIfPending(ctx);
+    }
+
+    private void flushIfPending(ChannelHandlerContext ctx) {
+        if (flushPending) {
+            flushPending = false;
+            issue(ctx);
+        }
+    }
+
+    private void issue(ChannelHandlerContext ctx) {
+        counters.issued.increment();
+        ctx.flush();
+    }
+}
@@ -0,0 +1,182 @@
+package com.ev07b.handler;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+import com.ev07b.commands.DeviceConnectionManager;
+import com.ev07b.services.DeviceService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * IdleSessionReaper
+ *
+ * Closes device connections that have not sent anything for app.netty.idle.timeout-s. All channels
+ * share one HashedWheelTimer: each holds a single wheel entry that, when it comes due, either closes
+ * the channel or re-arms itself for the time left since the last read. A read only stores a
+ * timestamp, so busy channels cost nothing per frame and there is no per-channel scheduled task on
+ * the event loops.
+ *
+ * Disconnects (idle closes and ordinary closes alike, reported by the business handler) are queued
+ * and handed to DeviceService.markDisconnected in one batch on the next wheel tick, so devices that
+ * time out together become one presence update. A device that reconnected in the meantime is left out.
+ */
+@Component
+public class IdleSessionReaper {
+
+    private final boolean enabled;
+    private final long timeoutNanos;
+    private final HashedWheelTimer timer;
+    private final DeviceService deviceService;
+    private final DeviceConnectionManager connMgr;
+
+    private final Queue<String> disconnected = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final LongAdder reaped = new LongAdder();
+    private final LongAdder markedDisconnected = new LongAdder();
+
+    public IdleSessionReaper(@Value("${app.netty.idle.enabled:true}") boolean enabled,
+                             @Value("${app.netty.idle.timeout-s:300}") long timeoutSeconds,
+                             @Value("${app.netty.idle.tick-ms:1000}") long tickMs,
+                             @Value("${app.netty.idle.wheel-size:512}") int wheelSize,
+                             DeviceService deviceService,
+                             DeviceConnectionManager connMgr) {
+        this.enabled = enabled && timeoutSeconds > 0;
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(1, timeoutSeconds));
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("ev07b-idle-wheel", true),
+                Math.max(10, tickMs), TimeUnit.MILLISECONDS, Math.max(1, wheelSize));
+        this.deviceService = deviceService;
+        this.connMgr = connMgr;
+        System.out.println("[IdleReaper] " + (this.enabled ? "Idle timeout " + timeoutSeconds + "s" : "Idle reaping disabled"));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** A fresh per-channel handler; install it ahead of the decoder. */
+    public ChannelHandler newHandler() {
+        return new IdleHandler();
+    }
+
+    /** Queue the device for the next batched markDisconnected. */
+    public void disconnected(String deviceId) {
+        disconnected.add(deviceId);
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                timer.newTimeout(t -> drain(), 0, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException | RejectedExecutionException stopped) {
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        List<String> batch = new ArrayList<>();
+        for (String id; (id = disconnected.poll()) != null; ) {
+            if (!connMgr.isConnected(id)) batch.add(id);
+        }
+        if (batch.isEmpty()) return;
+        deviceService.markDisconnected(batch);
+        markedDisconnected.add(batch.size());
+        System.out.println("[IdleReaper] Marked " + batch.size() + " device(s) disconnected");
+    }
+
+    /** Channels closed for being idle. */
+    public long getReaped() {
+        return reaped.sum();
+    }
+
+    public long getMarkedDisconnected() {
+        return markedDisconnected.sum();
+    }
+
+    @PreDestroy
+    public void stop() {
+        timer.stop();
+        drain();
+    }
+
+    /** Per-channel read timestamp plus the channel's wheel entry. */
+    private final class IdleHandler extends ChannelInboundHandlerAdapter implements TimerTask {
+        private volatile long lastRead;
+        private volatile Timeout timeout;
+        private Channel channel;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            channel = ctx.channel();
+            lastRead = System.nanoTime();
+            if (enabled) schedule(timeoutNanos);
+            ctx.fireChannelActive();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            lastRead = System.nanoTime();
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            cancel();
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) {
+            cancel();
+        }
+
+        // Runs on the wheel thread
+        @Override
+        public void run(Timeout t) {
+            Channel ch = channel;
+            if (t.isCancelled() || ch == null || !ch.isActive()) return;
+            long idle = System.nanoTime() - lastRead;
+            if (idle >= timeoutNanos) {
+                reaped.increment();
+                System.out.println("[IdleReaper] Closing idle channel " + ch.id().asShortText() + " after "
+                        + TimeUnit.NANOSECONDS.toSeconds(idle) + "s");
+                ch.close();
+            } else {
+                schedule(timeoutNanos - idle);
+            }
+        }
+
+        private void schedule(long delayNanos) {
+            try {
+                timeout = timer.newTimeout(this, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (IllegalStateException | RejectedExecutionException stopped) {
+                // Shutting down
+            }
+        }
+
+        private void cancel() {
+            Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+                timeout = null;
+            }
+        }
+    }
+}
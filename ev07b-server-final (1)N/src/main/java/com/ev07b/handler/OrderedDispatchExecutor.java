@@ -0,0 +1,313 @@
+package com.ev07b.handler;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OrderedDispatchExecutor
+ *
+ * Execution stage between decoding and dispatch. Blocking work (JPA/JDBC) runs here instead of on
+ * the Netty event loop, while tasks submitted under the same key (the device id) still run one at a
+ * time and in submission order through a per-key serial queue.
+ *
+ * Modes (app.dispatch.mode):
+ *   inline  - run on the calling (I/O) thread, i.e. the old behaviour
+ *   pool    - fixed thread pool
+ *   virtual - one virtual thread per serial queue drain (needs a Java 21+ runtime, else falls back to pool)
+ *
+ * Work never runs on the submitting thread. Once app.dispatch.queue-capacity tasks are waiting the
+ * stage reports itself saturated and callers apply backpressure (the business handler stops reading
+ * from the channel) until the backlog is down to half. Tasks submitted after shutdown are rejected,
+ * counted, and their onRejected callback runs so they can release what they hold.
+ */
+@Component
+public class OrderedDispatchExecutor {
+
+    public enum Mode { INLINE, POOL, VIRTUAL }
+
+    // Tasks a serial queue runs before yielding its thread to other devices
+    private static final int MAX_TASKS_PER_TURN = 32;
+
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final Map<String, SerialQueue> queues = new ConcurrentHashMap<>();
+    private final int highWater;
+    private final int lowWater;
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final Queue<Runnable> drainedCallbacks = new ConcurrentLinkedQueue<>();
+    private final LongAdder rejected = new LongAdder();
+
+    public OrderedDispatchExecutor(@Value("${app.dispatch.mode:POOL}") Mode mode,
+                                   @Value("${app.dispatch.pool-size:0}") int poolSize,
+                                   @Value("${app.dispatch.queue-capacity:10000}") int queueCapacity) {
+        ExecutorService ex = null;
+        Mode effective = mode;
+        if (mode == Mode.VIRTUAL) {
+            ex = newVirtualThreadExecutor();
+            if (ex == null) {
+                System.err.println("[Dispatch] Virtual threads not available on this runtime; using bounded pool");
+                effective = Mode.POOL;
+            }
+        }
+        if (effective == Mode.POOL) {
+            int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors() * 2;
+            // The pool queue holds serial queues that have work (one entry per busy key at most), not
+            // tasks; the task backlog is bounded by the saturation check instead
+            ex = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), namedThreads("ev07b-dispatch-"), new ThreadPoolExecutor.AbortPolicy());
+        }
+        this.highWater = Math.max(1, queueCapacity);
+        this.lowWater = this.highWater / 2;
+        this.mode = effective;
+        this.executor = ex;
+        System.out.println("[Dispatch] Execution stage mode=" + effective);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** Run {@code task} after every task previously submitted with the same key. */
+    public void execute(String key, Runnable task) {
+        execute(key, task, null);
+    }
+
+    /**
+     * Run {@code task} after every task previously submitted with the same key. If the stage has been
+     * shut down the task is dropped and {@code onRejected} (when not null) runs instead.
+     */
+    public void execute(String key, Runnable task, Runnable onRejected) {
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        Runnable t = onRejected == null ? task : new Guarded(task, onRejected);
+        while (true) {
+            SerialQueue q = queues.computeIfAbsent(key, SerialQueue::new);
+            int r = q.offer(t);
+            if (r == SerialQueue.RETIRED) continue; // retired concurrently; take a fresh one
+            backlog.incrementAndGet();
+            if (r == SerialQueue.SCHEDULE) schedule(q);
+            return;
+        }
+    }
+
+    /**
+     * Tasks submitted under {@code to} from now on run only after every task already submitted under
+     * {@code from}, e.g. when a connection's frames move from its channel key to its device key.
+     */
+    public void handOff(String from, String to) {
+        if (executor == null || from.equals(to)) return;
+        Barrier barrier = new Barrier();
+        execute(to, barrier);
+        execute(from, barrier::release, barrier::release);
+    }
+
+    /** Whether app.dispatch.queue-capacity tasks are waiting; callers should stop feeding the stage. */
+    public boolean isSaturated() {
+        return executor != null && backlog.get() >= highWater;
+    }
+
+    /** Run {@code callback} once the backlog is down to half the capacity (right away if it already is). */
+    public void whenDrained(Runnable callback) {
+        drainedCallbacks.add(callback);
+        if (backlog.get() <= lowWater) runDrainedCallbacks();
+    }
+
+    public int activeKeys() {
+        return queues.size();
+    }
+
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    /** Tasks dropped because they were submitted after shutdown. */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private final class SerialQueue implements Runnable {
+        static final int QUEUED = 0, SCHEDULE = 1, RETIRED = 2;
+
+        private final String key;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean running;
+        private boolean retired;
+
+        SerialQueue(String key) {
+            this.key = key;
+        }
+
+        synchronized int offer(Runnable task) {
+            if (retired) return RETIRED;
+            tasks.add(task);
+            if (running) return QUEUED;
+            running = true;
+            return SCHEDULE;
+        }
+
+        @Override
+        public void run() {
+            for (int n = 0; n < MAX_TASKS_PER_TURN; n++) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        // Drained: retire so idle devices don't keep an entry in the map
+                        running = false;
+                        retired = true;
+                        queues.remove(key, this);
+                        return;
+                    }
+                }
+                if (task instanceof Barrier && ((Barrier) task).park(this)) {
+                    // Stay 'running' so later tasks queue up behind the barrier; release() reschedules us
+                    taskDone();
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    System.err.println("[Dispatch] Task for " + key + " failed: " + t);
+                    t.printStackTrace();
+                } finally {
+                    taskDone();
+                }
+            }
+            // Yield the thread to other devices; ordering is kept since we stay 'running'
+            schedule(this);
+        }
+
+        // The executor refused to run us (shut down): drop everything queued
+        void reject() {
+            ArrayDeque<Runnable> dropped;
+            synchronized (this) {
+                retired = true;
+                running = false;
+                dropped = new ArrayDeque<>(tasks);
+                tasks.clear();
+                queues.remove(key, this);
+            }
+            for (Runnable task : dropped) {
+                rejected.increment();
+                taskDone();
+                if (task instanceof Guarded) {
+                    ((Guarded) task).onRejected.run();
+                } else if (task instanceof Barrier) {
+                    ((Barrier) task).release();
+                }
+            }
+            if (!dropped.isEmpty()) {
+                System.err.println("[Dispatch] Stage shut down; dropped " + dropped.size() + " task(s) for " + key);
+            }
+        }
+    }
+
+    private void schedule(SerialQueue q) {
+        try {
+            executor.execute(q);
+        } catch (RejectedExecutionException ex) {
+            q.reject();
+        }
+    }
+
+    private void taskDone() {
+        if (backlog.decrementAndGet() <= lowWater && !drainedCallbacks.isEmpty()) runDrainedCallbacks();
+    }
+
+    private void runDrainedCallbacks() {
+        for (Runnable r; (r = drainedCallbacks.poll()) != null; ) {
+            try {
+                r.run();
+            } catch (RuntimeException ex) {
+                System.err.println("[Dispatch] Drained callback failed: " + ex);
+            }
+        }
+    }
+
+    /** A task with the cleanup to run if it is dropped at shutdown. */
+    private static final class Guarded implements Runnable {
+        final Runnable task;
+        final Runnable onRejected;
+
+        Guarded(Runnable task, Runnable onRejected) {
+            this.task = task;
+            this.onRejected = onRejected;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    /** Parks the serial queue that reaches it until release() is called (see handOff). */
+    private final class Barrier implements Runnable {
+        private SerialQueue parked;
+        private boolean released;
+
+        @Override
+        public void run() {
+            // Reached after release(): nothing to wait for
+        }
+
+        synchronized boolean park(SerialQueue q) {
+            if (released) return false;
+            parked = q;
+            return true;
+        }
+
+        void release() {
+            SerialQueue q;
+            synchronized (this) {
+                if (released) return;
+                released = true;
+                q = parked;
+                parked = null;
+            }
+            if (q != null) schedule(q);
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,213 @@
+package com.ev07b.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.ev07b.metrics.IngestionMetrics;
+import com.ev07b.net.ChannelSession;
+import com.ev07b.net.FrameWriter;
+import com.ev07b.services.CommandService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OutboundGate
+ *
+ * Backpressure for device channels. When a channel crosses its write-buffer high-water mark
+ * (app.netty.write-buffer-*) and becomes unwritable, its handler stops reading from the device
+ * (autoRead off) and holds back non-critical writes (commands, alarms, pending replays) in a
+ * per-channel queue instead of piling them into the outbound buffer. ACKs still pass straight
+ * through. Once the channel drains below the low mark, reads resume and the held writes go out in
+ * order.
+ *
+ * The held-back queue is capped at app.netty.backpressure.max-deferred-bytes; frames beyond it, and
+ * frames still held when the channel closes, are moved to the pending-command store (their write
+ * promise fails with {@link SpilledException}) and delivered once the device is reachable again.
+ */
+@Component
+public class OutboundGate {
+
+    /** Write promise failure for frames moved to the pending store instead of being written. */
+    public static final class SpilledException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        SpilledException() {
+            super("deferred write moved to the pending-command store", null, false, false);
+        }
+    }
+
+    /** Shared failure (no stack trace) for writes that went to the pending store. */
+    public static final SpilledException SPILLED = new SpilledException();
+
+    private final boolean enabled;
+    private final boolean pauseReads;
+    private final long maxDeferredBytes;
+    private final IngestionMetrics metrics;
+    private final CommandService commandService;
+    private final OrderedDispatchExecutor stage;
+
+    public OutboundGate(@Value("${app.netty.backpressure.enabled:true}") boolean enabled,
+                        @Value("${app.netty.backpressure.pause-reads:true}") boolean pauseReads,
+                        @Value("${app.netty.backpressure.max-deferred-bytes:65536}") long maxDeferredBytes,
+                        IngestionMetrics metrics,
+                        CommandService commandService,
+                        OrderedDispatchExecutor stage) {
+        this.enabled = enabled;
+        this.pauseReads = pauseReads;
+        this.maxDeferredBytes = Math.max(0, maxDeferredBytes);
+        this.metrics = metrics;
+        this.commandService = commandService;
+        this.stage = stage;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** A fresh per-channel handler; install it ahead of the flush coalescer and the codec. */
+    public ChannelHandler newHandler() {
+        return new GateHandler();
+    }
+
+    // Pending store writes are blocking; run them on the dispatch stage
+    private void spill(String deviceId, List<byte[]> frames) {
+        if (deviceId == null || frames.isEmpty()) return;
+        List<String> ids = new ArrayList<>(frames.size());
+        for (int i = 0; i < frames.size(); i++) ids.add(deviceId);
+        stage.execute(deviceId, () -> {
+            try {
+                commandService.queuePending(ids, frames);
+            } catch (Exception ex) {
+                System.err.println("[OutboundGate] Failed to store " + frames.size() + " frame(s) for " + deviceId + ": " + ex.getMessage());
+            }
+        });
+    }
+
+    private static final class Deferred {
+        final ByteBuf frame;
+        final ChannelPromise promise;
+
+        Deferred(ByteBuf frame, ChannelPromise promise) {
+            this.frame = frame;
+            this.promise = promise;
+        }
+    }
+
+    /** Event-loop confined; one instance per channel. */
+    private final class GateHandler extends ChannelDuplexHandler {
+        private final ArrayDeque<Deferred> deferred = new ArrayDeque<>();
+        private long deferredBytes;
+        private boolean unwritable;
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (!(msg instanceof ByteBuf) || FrameWriter.isAck((ByteBuf) msg)
+                    || (ctx.channel().isWritable() && deferred.isEmpty())) {
+                ctx.write(msg, promise);
+                return;
+            }
+            ByteBuf frame = (ByteBuf) msg;
+            if (deferredBytes + frame.readableBytes() > maxDeferredBytes) {
+                List<byte[]> frames = new ArrayList<>(1);
+                frames.add(toBytes(frame, promise));
+                metrics.outboundSpilled(1);
+                spill(ChannelSession.deviceId(ctx.channel()), frames);
+                return;
+            }
+            deferred.add(new Deferred(frame, promise));
+            deferredBytes += frame.readableBytes();
+            metrics.outboundDeferred();
+            // Writable but frames are still held (no writability event since): keep order, drain now
+            if (ctx.channel().isWritable()) drain(ctx);
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            Channel ch = ctx.channel();
+            if (!ch.isWritable()) {
+                if (!unwritable) {
+                    unwritable = true;
+                    metrics.highWaterMark();
+                    if (pauseReads) ch.config().setAutoRead(false);
+                }
+            } else {
+                boolean resumed = unwritable;
+                if (resumed) {
+                    unwritable = false;
+                    metrics.writableAgain();
+                }
+                if (!deferred.isEmpty()) drain(ctx);
+                if (resumed && pauseReads && ch.isWritable()) resumeReads(ch);
+            }
+            ctx.fireChannelWritabilityChanged();
+        }
+
+        // The dispatch stage may be holding reads off as well; leave resuming to it while it is saturated
+        private void resumeReads(Channel ch) {
+            if (!stage.isSaturated()) {
+                ch.config().setAutoRead(true);
+            } else {
+                stage.whenDrained(() -> {
+                    if (ch.isWritable()) ch.config().setAutoRead(true);
+                });
+            }
+        }
+
+        // Write held frames in order until the channel fills up again
+        private void drain(ChannelHandlerContext ctx) {
+            boolean wrote = false;
+            while (!deferred.isEmpty() && ctx.channel().isWritable()) {
+                Deferred d = deferred.poll();
+                deferredBytes -= d.frame.readableBytes();
+                ctx.write(d.frame, d.promise);
+                wrote = true;
+            }
+            if (wrote) ctx.flush();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            spillAll(ctx);
+            if (unwritable) {
+                unwritable = false;
+                metrics.writableAgain();
+            }
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) {
+            spillAll(ctx);
+        }
+
+        private void spillAll(ChannelHandlerContext ctx) {
+            if (deferred.isEmpty()) return;
+            List<byte[]> frames = new ArrayList<>(deferred.size());
+            for (Deferred d; (d = deferred.poll()) != null; ) {
+                frames.add(toBytes(d.frame, d.promise));
+            }
+            deferredBytes = 0;
+            metrics.outboundSpilled(frames.size());
+            spill(ChannelSession.deviceId(ctx.channel()), frames);
+        }
+
+        private byte[] toBytes(ByteBuf frame, ChannelPromise promise) {
+            try {
+                return ByteBufUtil.getBytes(frame);
+            } finally {
+                frame.release();
+                promise.tryFailure(SPILLED);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.ev07b.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * ChannelTrafficHandler
+ *
+ * Counts raw bytes in/out and open connections for {@link IngestionMetrics}. Sits at the head of
+ * the pipeline so it sees socket bytes before decoding and after encoding. Stateless; one shared
+ * instance per server.
+ */
+@Sharable
+public class ChannelTrafficHandler extends ChannelDuplexHandler {
+
+    private final IngestionMetrics metrics;
+
+    public ChannelTrafficHandler(IngestionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        metrics.channelActive();
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        metrics.channelInactive();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) metrics.bytesIn(((ByteBuf) msg).readableBytes());
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) metrics.bytesOut(((ByteBuf) msg).readableBytes());
+        ctx.write(msg, promise);
+    }
+}
@@ -0,0 +1,148 @@
+package com.ev07b.metrics;
+
+import com.ev07b.commands.DeviceConnectionManager;
+import com.ev07b.handler.FlushCoalescingHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * IngestionMetrics
+ *
+ * Lock-free counters for the device ingestion path (decoder, pipeline, dispatcher, ACKs), rendered
+ * in Prometheus text format by MetricsController. Hot-path updates are single LongAdder increments.
+ * Components built outside Spring (tests, tools) can use their own {@code new IngestionMetrics()}.
+ */
+@Component
+public class IngestionMetrics {
+
+    private final LongAdder[] framesByCommand = new LongAdder[256];
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder crcFailures = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+    private final LongAdder resyncBytes = new LongAdder();
+    private final LongAdder oversizeFrames = new LongAdder();
+    private final LongAdder unknownCommands = new LongAdder();
+    private final LongAdder acksSent = new LongAdder();
+    private final LongAdder channelsOpened = new LongAdder();
+    private final LongAdder channelsActive = new LongAdder();
+    private final LongAdder commandsTracked = new LongAdder();
+    private final LongAdder commandAcks = new LongAdder();
+    private final LongAdder unmatchedAcks = new LongAdder();
+    private final LongAdder retransmits = new LongAdder();
+    private final LongAdder commandsExpired = new LongAdder();
+    private final LongAdder highWaterMarks = new LongAdder();
+    private final LongAdder channelsUnwritable = new LongAdder();
+    private final LongAdder outboundDeferred = new LongAdder();
+    private final LongAdder outboundSpilled = new LongAdder();
+    private final FlushCoalescingHandler.Counters flushes = new FlushCoalescingHandler.Counters();
+
+    @Autowired(required = false)
+    private DeviceConnectionManager connMgr;
+
+    public IngestionMetrics() {
+        for (int i = 0; i < framesByCommand.length; i++) framesByCommand[i] = new LongAdder();
+    }
+
+    public void frameDecoded(int commandId) { framesByCommand[commandId & 0xFF].increment(); }
+    public void bytesIn(long n) { bytesIn.add(n); }
+    public void bytesOut(long n) { bytesOut.add(n); }
+    public void crcFailure() { crcFailures.increment(); }
+    /** The decoder had to skip {@code skipped} bytes of non-frame data to find a header. */
+    public void resync(long skipped) {
+        resyncs.increment();
+        resyncBytes.add(skipped);
+    }
+    public void oversizeFrame() { oversizeFrames.increment(); }
+    public void unknownCommand() { unknownCommands.increment(); }
+    public void ackSent() { acksSent.increment(); }
+    public void channelActive() {
+        channelsOpened.increment();
+        channelsActive.increment();
+    }
+    public void channelInactive() { channelsActive.decrement(); }
+    public void commandTracked() { commandsTracked.increment(); }
+    public void commandAcked() { commandAcks.increment(); }
+    public void unmatchedAck() { unmatchedAcks.increment(); }
+    public void retransmit() { retransmits.increment(); }
+    public void commandExpired() { commandsExpired.increment(); }
+    /** A channel crossed its write-buffer high-water mark (became unwritable). */
+    public void highWaterMark() {
+        highWaterMarks.increment();
+        channelsUnwritable.increment();
+    }
+    public void writableAgain() { channelsUnwritable.decrement(); }
+    public void outboundDeferred() { outboundDeferred.increment(); }
+    public void outboundSpilled(int frames) { outboundSpilled.add(frames); }
+
+    public FlushCoalescingHandler.Counters flushCounters() { return flushes; }
+
+    public long getFramesDecoded(int commandId) { return framesByCommand[commandId & 0xFF].sum(); }
+    public long getBytesIn() { return bytesIn.sum(); }
+    public long getBytesOut() { return bytesOut.sum(); }
+    public long getCrcFailures() { return crcFailures.sum(); }
+    public long getResyncs() { return resyncs.sum(); }
+    public long getOversizeFrames() { return oversizeFrames.sum(); }
+    public long getUnknownCommands() { return unknownCommands.sum(); }
+    public long getAcksSent() { return acksSent.sum(); }
+    public long getActiveChannels() { return channelsActive.sum(); }
+    public long getCommandAcks() { return commandAcks.sum(); }
+    public long getRetransmits() { return retransmits.sum(); }
+    public long getCommandsExpired() { return commandsExpired.sum(); }
+    public long getHighWaterMarks() { return highWaterMarks.sum(); }
+    public long getOutboundDeferred() { return outboundDeferred.sum(); }
+    public long getOutboundSpilled() { return outboundSpilled.sum(); }
+    public int getRegisteredDevices() { return connMgr == null ? 0 : connMgr.size(); }
+
+    /** Prometheus text exposition format 0.0.4. */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder(2048);
+        header(sb, "ev07b_frames_decoded_total", "Frames decoded, by command id", "counter");
+        for (int i = 0; i < framesByCommand.length; i++) {
+            long n = framesByCommand[i].sum();
+            if (n != 0) {
+                sb.append("ev07b_frames_decoded_total{command=\"0x").append(String.format("%02x", i)).append("\"} ").append(n).append('\n');
+            }
+        }
+        counter(sb, "ev07b_bytes_in_total", "Bytes read from device channels", bytesIn.sum());
+        counter(sb, "ev07b_bytes_out_total", "Bytes written to device channels", bytesOut.sum());
+        counter(sb, "ev07b_crc_failures_total", "Frames dropped for a CRC mismatch", crcFailures.sum());
+        counter(sb, "ev07b_header_resyncs_total", "Times the decoder skipped data to find a frame header", resyncs.sum());
+        counter(sb, "ev07b_resync_bytes_total", "Bytes skipped while resyncing", resyncBytes.sum());
+        counter(sb, "ev07b_oversize_frames_total", "Headers rejected for a length above the maximum", oversizeFrames.sum());
+        counter(sb, "ev07b_unknown_commands_total", "Frames with no registered command processor", unknownCommands.sum());
+        counter(sb, "ev07b_acks_sent_total", "0x7F ACK frames written", acksSent.sum());
+        counter(sb, "ev07b_commands_tracked_total", "ACK-requested commands put in a device's in-flight window", commandsTracked.sum());
+        counter(sb, "ev07b_command_acks_total", "Inbound 0x7F ACKs matched to an in-flight command", commandAcks.sum());
+        counter(sb, "ev07b_unmatched_acks_total", "Inbound 0x7F ACKs with no in-flight command (late or duplicate)", unmatchedAcks.sum());
+        counter(sb, "ev07b_command_retransmits_total", "In-flight commands re-sent after an ACK timeout", retransmits.sum());
+        counter(sb, "ev07b_commands_expired_total", "Commands moved to the pending store after running out of retries", commandsExpired.sum());
+        counter(sb, "ev07b_write_high_water_mark_total", "Times a channel crossed its write-buffer high-water mark", highWaterMarks.sum());
+        counter(sb, "ev07b_outbound_deferred_total", "Writes held back while their channel was unwritable", outboundDeferred.sum());
+        counter(sb, "ev07b_outbound_spilled_total", "Held-back writes moved to the pending-command store", outboundSpilled.sum());
+        counter(sb, "ev07b_channels_opened_total", "Device connections accepted", channelsOpened.sum());
+        counter(sb, "ev07b_flush_requested_total", "Flushes requested by handlers", flushes.getRequested());
+        counter(sb, "ev07b_flush_issued_total", "Flushes passed to the socket", flushes.getIssued());
+        gauge(sb, "ev07b_channels_active", "Open device connections", channelsActive.sum());
+        gauge(sb, "ev07b_channels_unwritable", "Device connections currently above the high-water mark", channelsUnwritable.sum());
+        gauge(sb, "ev07b_devices_registered", "Devices with a registered channel", getRegisteredDevices());
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "counter");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "gauge");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+}
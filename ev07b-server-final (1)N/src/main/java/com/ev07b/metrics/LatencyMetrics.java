@@ -0,0 +1,138 @@
+package com.ev07b.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * LatencyMetrics
+ *
+ * Per-command latency histograms (HdrHistogram Recorders; wait-free to record from any thread):
+ *   decodeToDispatch - frame decoded until its processor's handle() starts (includes stage queueing)
+ *   handle           - duration of CommandProcessor.handle
+ *   ack              - frame decoded until the ACK write completed
+ * Every intervalMs the recorders are swapped out and the finished interval becomes the snapshot
+ * served by LatencyController, so percentiles always describe one recent window.
+ */
+@Component
+public class LatencyMetrics {
+
+    public enum Stage { DECODE_TO_DISPATCH, HANDLE, ACK }
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final boolean enabled;
+    private final long intervalMs;
+    private final AtomicReferenceArray<CommandLatency> byCommand = new AtomicReferenceArray<>(256);
+    private ScheduledExecutorService roller;
+    private volatile long intervalStartMs = System.currentTimeMillis();
+    private volatile long lastIntervalStartMs, lastIntervalEndMs;
+
+    private static final class CommandLatency {
+        final Recorder[] recorders = new Recorder[Stage.values().length];
+        final Histogram[] last = new Histogram[Stage.values().length];
+
+        CommandLatency() {
+            for (int i = 0; i < recorders.length; i++) recorders[i] = new Recorder(SIGNIFICANT_DIGITS);
+        }
+    }
+
+    public LatencyMetrics(@Value("${app.latency.enabled:true}") boolean enabled,
+                          @Value("${app.latency.interval-ms:60000}") long intervalMs) {
+        this.enabled = enabled;
+        this.intervalMs = intervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        roller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "latency-interval");
+            t.setDaemon(true);
+            return t;
+        });
+        roller.scheduleAtFixedRate(this::rollInterval, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (roller != null) roller.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Record the time since {@code startNanos} (a System.nanoTime() value). */
+    public void recordSince(int commandId, Stage stage, long startNanos) {
+        if (!enabled) return;
+        long v = System.nanoTime() - startNanos;
+        latency(commandId).recorders[stage.ordinal()].recordValue(v < 0 ? 0 : v);
+    }
+
+    private CommandLatency latency(int commandId) {
+        int i = commandId & 0xFF;
+        CommandLatency l = byCommand.get(i);
+        if (l == null) {
+            byCommand.compareAndSet(i, null, new CommandLatency());
+            l = byCommand.get(i);
+        }
+        return l;
+    }
+
+    synchronized void rollInterval() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < byCommand.length(); i++) {
+            CommandLatency l = byCommand.get(i);
+            if (l == null) continue;
+            for (int s = 0; s < l.recorders.length; s++) {
+                // Recycle the previous snapshot's histogram to keep the roll allocation-free
+                l.last[s] = l.recorders[s].getIntervalHistogram(l.last[s]);
+            }
+        }
+        lastIntervalStartMs = intervalStartMs;
+        lastIntervalEndMs = now;
+        intervalStartMs = now;
+    }
+
+    /** Last completed interval: per command, per stage count/p50/p99/p999/max in microseconds. */
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("intervalStartMs", lastIntervalStartMs);
+        res.put("intervalEndMs", lastIntervalEndMs);
+        Map<String, Object> commands = new LinkedHashMap<>();
+        for (int i = 0; i < byCommand.length(); i++) {
+            CommandLatency l = byCommand.get(i);
+            if (l == null) continue;
+            Map<String, Object> stages = new LinkedHashMap<>();
+            for (Stage s : Stage.values()) {
+                Histogram h = l.last[s.ordinal()];
+                if (h == null || h.getTotalCount() == 0) continue;
+                Map<String, Object> p = new LinkedHashMap<>();
+                p.put("count", h.getTotalCount());
+                p.put("p50Us", micros(h.getValueAtPercentile(50)));
+                p.put("p99Us", micros(h.getValueAtPercentile(99)));
+                p.put("p999Us", micros(h.getValueAtPercentile(99.9)));
+                p.put("maxUs", micros(h.getMaxValue()));
+                stages.put(s.name().toLowerCase(), p);
+            }
+            if (!stages.isEmpty()) commands.put(String.format("0x%02x", i), stages);
+        }
+        res.put("commands", commands);
+        return res;
+    }
+
+    private static double micros(long nanos) {
+        return Math.round(nanos / 100.0) / 10.0;
+    }
+}
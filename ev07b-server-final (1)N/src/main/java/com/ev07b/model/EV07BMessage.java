@@ -1,12 +1,38 @@
 package com.ev07b.model;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
+
+import com.ev07b.util.DeviceKeys;
+
 import java.time.Instant;
 
-public class EV07BMessage {
-    private final String deviceId;
+/**
+ * EV07BMessage
+ *
+ * A decoded frame. The body is either a plain byte[] or, in zero-copy decoding mode, a retained
+ * slice of the inbound (pooled) buffer. In the latter case the message owns one reference to the
+ * slice and must be released once dispatch has finished; {@link #getPayload()} copies the bytes out
+ * lazily on first use.
+ *
+ * The device is identified by a 64-bit key (see {@link DeviceKeys}); the decoder fills in only the
+ * key, and the id String is materialized on first {@link #getDeviceId()} unless the connection's
+ * session already had it.
+ */
+public class EV07BMessage implements ReferenceCounted {
+    private String deviceId;
+    private long deviceKey;
+    private boolean keyKnown;
     private final int commandId;
-    private final byte[] payload;
+    private final ByteBuf body;
+    private byte[] payload;
+    private KeyIndex keys;
     private final Instant receivedAt;
+    private final long receivedNanos; // System.nanoTime() at decode, for latency measurement
+    // Set on the event loop by AckWriter; read on the execution stage after the hand-off
+    private boolean ackWritten;
 
     // New: carry protocol-level metadata
     private final byte properties;
@@ -17,19 +43,208 @@ public class EV07BMessage {
     }
 
     public EV07BMessage(String deviceId, int commandId, byte[] payload, byte properties, int sequenceId) {
+        this(deviceId, commandId, payload, null, properties, sequenceId);
+    }
+
+    /** {@code keys} is the decoder's index of the body; built lazily when null. */
+    public EV07BMessage(String deviceId, int commandId, byte[] payload, KeyIndex keys, byte properties, int sequenceId) {
+        this(deviceId, commandId, null, payload, keys, properties, sequenceId, Instant.now(), System.nanoTime());
+    }
+
+    /** Zero-copy variant: takes ownership of one reference to {@code body}. */
+    public EV07BMessage(String deviceId, int commandId, ByteBuf body, KeyIndex keys, byte properties, int sequenceId) {
+        this(deviceId, commandId, body, null, keys, properties, sequenceId, Instant.now(), System.nanoTime());
+    }
+
+    /** Decoder variant keyed by device key; {@code deviceId} may be null (materialized on demand). */
+    public EV07BMessage(long deviceKey, String deviceId, int commandId, byte[] payload, KeyIndex keys, byte properties, int sequenceId) {
+        this(deviceId, commandId, null, payload, keys, properties, sequenceId, Instant.now(), System.nanoTime());
+        setKey(deviceKey);
+    }
+
+    /** Zero-copy decoder variant keyed by device key; takes ownership of one reference to {@code body}. */
+    public EV07BMessage(long deviceKey, String deviceId, int commandId, ByteBuf body, KeyIndex keys, byte properties, int sequenceId) {
+        this(deviceId, commandId, body, null, keys, properties, sequenceId, Instant.now(), System.nanoTime());
+        setKey(deviceKey);
+    }
+
+    private EV07BMessage(String deviceId, int commandId, ByteBuf body, byte[] payload, KeyIndex keys,
+                         byte properties, int sequenceId, Instant receivedAt, long receivedNanos) {
         this.deviceId = deviceId;
         this.commandId = commandId;
+        this.body = body;
         this.payload = payload;
+        this.keys = keys;
         this.properties = properties;
         this.sequenceId = sequenceId;
-        this.receivedAt = Instant.now();
+        this.receivedAt = receivedAt;
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * Same frame attributed to another device id. The returned message shares (and takes over)
+     * the underlying body, so only one of the two instances should be released.
+     */
+    public EV07BMessage withDeviceId(String newDeviceId) {
+        return new EV07BMessage(newDeviceId, commandId, body, payload, keys, properties, sequenceId, receivedAt, receivedNanos);
+    }
+
+    /** As {@link #withDeviceId(String)}, for a device whose key and id are both known. */
+    public EV07BMessage withDevice(long newDeviceKey, String newDeviceId) {
+        EV07BMessage m = new EV07BMessage(newDeviceId, commandId, body, payload, keys, properties, sequenceId, receivedAt, receivedNanos);
+        m.setKey(newDeviceKey);
+        return m;
+    }
+
+    /** Device id; "UNKNOWN" when the frame carried none. */
+    public String getDeviceId() {
+        if (deviceId == null) {
+            deviceId = DeviceKeys.toId(deviceKey);
+        }
+        return deviceId;
+    }
+
+    /** Device key; {@link DeviceKeys#NONE} when the frame carried no id. */
+    public long getDeviceKey() {
+        if (!keyKnown) {
+            setKey(DeviceKeys.of(deviceId));
+        }
+        return deviceKey;
+    }
+
+    private void setKey(long key) {
+        this.deviceKey = key;
+        this.keyKnown = true;
     }
 
-    public String getDeviceId() { return deviceId; }
     public int getCommandId() { return commandId; }
-    public byte[] getPayload() { return payload; }
     public Instant getReceivedAt() { return receivedAt; }
+    public long getReceivedNanos() { return receivedNanos; }
 
     public byte getProperties() { return properties; }
     public int getSequenceId() { return sequenceId; }
+
+    /** Whether the requested ACK for this frame was written from onReceive. */
+    public boolean isAckWritten() { return ackWritten; }
+    public void markAckWritten() { ackWritten = true; }
+
+    /** Body as a byte[]; in zero-copy mode the bytes are copied out of the slice on first call. */
+    public byte[] getPayload() {
+        if (payload == null && body != null) {
+            payload = ByteBufUtil.getBytes(body);
+        }
+        return payload;
+    }
+
+    /** Read-only view of the body without copying. Valid until the message is released. */
+    public ByteBuf content() {
+        if (body != null) return body;
+        return payload != null ? Unpooled.wrappedBuffer(payload) : Unpooled.EMPTY_BUFFER;
+    }
+
+    public int getPayloadLength() {
+        if (body != null) return body.readableBytes();
+        return payload != null ? payload.length : 0;
+    }
+
+    /** Key layout of the body, as indexed by the decoder. */
+    public KeyIndex keys() {
+        if (keys == null) {
+            keys = body != null ? KeyIndex.build(body, body.readerIndex(), body.readableBytes()) : KeyIndex.build(payload);
+        }
+        return keys;
+    }
+
+    // ---- Typed key accessors (values are little-endian per protocol) ----
+
+    public boolean hasGps() {
+        return keys().find(KeyIndex.KEY_GPS, 8) >= 0;
+    }
+
+    /** Returned by the GPS accessors when the body has no GPS key; outside any valid 1e7 coordinate. */
+    public static final int NO_GPS = Integer.MIN_VALUE;
+
+    /** Latitude scaled by 1e7, or {@link #NO_GPS} when absent (check {@link #hasGps()} first). */
+    public int gpsLatE7() {
+        KeyIndex k = keys();
+        int e = k.find(KeyIndex.KEY_GPS, 8);
+        return e < 0 ? NO_GPS : intLE(k.valueOffset(e));
+    }
+
+    /** Longitude scaled by 1e7, or {@link #NO_GPS} when absent (check {@link #hasGps()} first). */
+    public int gpsLonE7() {
+        KeyIndex k = keys();
+        int e = k.find(KeyIndex.KEY_GPS, 8);
+        return e < 0 ? NO_GPS : intLE(k.valueOffset(e) + 4);
+    }
+
+    public boolean hasAlarm() {
+        return keys().find(KeyIndex.KEY_ALARM_CODE, 4) >= 0;
+    }
+
+    /** Alarm bits 0..31 of key 0x02, or 0 when absent. */
+    public long alarmCode() {
+        KeyIndex k = keys();
+        int e = k.find(KeyIndex.KEY_ALARM_CODE, 4);
+        return e < 0 ? 0L : Integer.toUnsignedLong(intLE(k.valueOffset(e)));
+    }
+
+    /** Extended alarm bits of key 0x02 (after the 4-byte UTC), or 0 when absent. */
+    public long alarmExtend() {
+        KeyIndex k = keys();
+        int e = k.find(KeyIndex.KEY_ALARM_CODE, 12);
+        return e < 0 ? 0L : Integer.toUnsignedLong(intLE(k.valueOffset(e) + 8));
+    }
+
+    /** UTC seconds from the general data key 0x24, or -1 when absent. */
+    public long generalDataTimestamp() {
+        KeyIndex k = keys();
+        int e = k.find(KeyIndex.KEY_GENERAL_DATA, 4);
+        return e < 0 ? -1L : Integer.toUnsignedLong(intLE(k.valueOffset(e)));
+    }
+
+    private int intLE(int off) {
+        if (body != null) return body.getIntLE(body.readerIndex() + off);
+        return (payload[off] & 0xFF) | (payload[off + 1] & 0xFF) << 8
+                | (payload[off + 2] & 0xFF) << 16 | (payload[off + 3] & 0xFF) << 24;
+    }
+
+    @Override
+    public int refCnt() {
+        return body != null ? body.refCnt() : 1;
+    }
+
+    @Override
+    public EV07BMessage retain() {
+        if (body != null) body.retain();
+        return this;
+    }
+
+    @Override
+    public EV07BMessage retain(int increment) {
+        if (body != null) body.retain(increment);
+        return this;
+    }
+
+    @Override
+    public EV07BMessage touch() {
+        if (body != null) body.touch();
+        return this;
+    }
+
+    @Override
+    public EV07BMessage touch(Object hint) {
+        if (body != null) body.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return body != null && body.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return body != null && body.release(decrement);
+    }
 }
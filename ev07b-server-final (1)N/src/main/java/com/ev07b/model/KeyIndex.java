@@ -0,0 +1,85 @@
+package com.ev07b.model;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
+
+/**
+ * KeyIndex
+ *
+ * Offsets of the keys in a frame body laid out as [cmd][keyLen][key][value...]*, built in a single
+ * pass by the decoder so that processors never walk the body again. Each entry takes two ints:
+ * (key << 16 | valueLen) and the value offset relative to the start of the body.
+ */
+public final class KeyIndex {
+
+    public static final int KEY_DEVICE_ID = 0x01;
+    public static final int KEY_ALARM_CODE = 0x02;
+    public static final int KEY_GPS = 0x20;
+    public static final int KEY_GENERAL_DATA = 0x24;
+
+    public static final KeyIndex EMPTY = new KeyIndex(new int[0], 0);
+
+    private final int[] entries;
+    private final int count;
+
+    private KeyIndex(int[] entries, int count) {
+        this.entries = entries;
+        this.count = count;
+    }
+
+    /** Index the body occupying {@code buf[start, start + len)}; stops at the first malformed key. */
+    public static KeyIndex build(ByteBuf buf, int start, int len) {
+        if (len < 2) return EMPTY;
+        int[] e = new int[16];
+        int n = 0;
+        int end = start + len;
+        int i = start + 1; // skip command byte
+        while (i < end) {
+            int keyLen = buf.getUnsignedByte(i++);
+            if (keyLen < 1 || i + keyLen > end) break; // key byte + value must fit
+            int key = buf.getUnsignedByte(i++);
+            int valueLen = keyLen - 1;
+            if (n * 2 == e.length) {
+                e = Arrays.copyOf(e, e.length * 2);
+            }
+            e[n * 2] = (key << 16) | valueLen;
+            e[n * 2 + 1] = i - start;
+            n++;
+            i += valueLen;
+        }
+        return n == 0 ? EMPTY : new KeyIndex(e, n);
+    }
+
+    public static KeyIndex build(byte[] body) {
+        if (body == null) return EMPTY;
+        return build(Unpooled.wrappedBuffer(body), 0, body.length);
+    }
+
+    public int size() { return count; }
+
+    public int key(int entry) { return entries[entry * 2] >>> 16; }
+
+    public int valueLength(int entry) { return entries[entry * 2] & 0xFFFF; }
+
+    /** Offset of the value relative to the start of the body (i.e. including the command byte). */
+    public int valueOffset(int entry) { return entries[entry * 2 + 1]; }
+
+    /** First entry with the given key, or -1. */
+    public int find(int key) {
+        for (int k = 0; k < count; k++) {
+            if ((entries[k * 2] >>> 16) == key) return k;
+        }
+        return -1;
+    }
+
+    /** First entry with the given key whose value is at least {@code minLen} bytes, or -1. */
+    public int find(int key, int minLen) {
+        for (int k = 0; k < count; k++) {
+            int h = entries[k * 2];
+            if ((h >>> 16) == key && (h & 0xFFFF) >= minLen) return k;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,126 @@
+package com.ev07b.net;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * ChannelSession
+ *
+ * Per-connection device state, attached to the Channel under {@link #KEY}. Once the first frame
+ * carrying a device id has been seen, the business handler calls {@link #identify} and from then on
+ * the decoder and handler take the id from here instead of scanning the frame for an IMEI and
+ * probing the connection maps. The session also holds the per-device objects that used to be
+ * looked up by id on every frame: the outbound sequence counter (shared with SequenceManager so ids
+ * stay monotonic across reconnects), the pending-command flag, the geofence transition state and the
+ * in-flight window of outbound commands awaiting an ACK.
+ *
+ * The id and the cached references are written once on the event loop and read from the dispatch
+ * stage and REST threads, hence volatile. The session lives and dies with its Channel.
+ */
+public final class ChannelSession {
+
+    public static final AttributeKey<ChannelSession> KEY = AttributeKey.valueOf("ev07b.session");
+
+    private volatile String deviceId;
+    private volatile long deviceKey;
+    private volatile AtomicInteger sequence;
+    private volatile boolean pending;
+    private volatile Object geofenceState;
+    private volatile Object outboundWindow;
+
+    /** The channel's session, or null when none has been attached yet. */
+    public static ChannelSession get(Channel ch) {
+        return ch == null ? null : ch.attr(KEY).get();
+    }
+
+    /** The channel's session, attaching a fresh (unidentified) one if needed. */
+    public static ChannelSession of(Channel ch) {
+        Attribute<ChannelSession> attr = ch.attr(KEY);
+        ChannelSession s = attr.get();
+        if (s == null) {
+            s = new ChannelSession();
+            ChannelSession existing = attr.setIfAbsent(s);
+            if (existing != null) s = existing;
+        }
+        return s;
+    }
+
+    /** Device id of the channel, or null when the channel has not been identified yet. */
+    public static String deviceId(Channel ch) {
+        ChannelSession s = get(ch);
+        return s == null ? null : s.deviceId;
+    }
+
+    /**
+     * Bind the session to a device. {@code sequence} is the device's counter from SequenceManager;
+     * {@code pending} whether commands were queued for it before this channel was registered.
+     */
+    public void identify(long deviceKey, String deviceId, AtomicInteger sequence, boolean pending) {
+        this.sequence = sequence;
+        if (pending) this.pending = true;
+        this.deviceKey = deviceKey;
+        this.deviceId = deviceId; // published last: isIdentified() implies the rest is set
+    }
+
+    public boolean isIdentified() {
+        return deviceId != null;
+    }
+
+    public String deviceId() {
+        return deviceId;
+    }
+
+    /** Device key (see DeviceKeys); only meaningful once identified. */
+    public long deviceKey() {
+        return deviceKey;
+    }
+
+    /** Next outbound sequence id for the device (16-bit, wrapping); the session must be identified. */
+    public int nextSequence() {
+        return SequenceManager.next(sequence);
+    }
+
+    /** Set when commands are queued for the device; cleared by delivery. */
+    public boolean hasPending() {
+        return pending;
+    }
+
+    public void markPending() {
+        pending = true;
+    }
+
+    /** Clear the flag before delivering, so a command queued concurrently sets it again. */
+    public void clearPending() {
+        pending = false;
+    }
+
+    /** Opaque slot for GeofenceEvaluatorService's per-device transition state. */
+    public Object geofenceState() {
+        return geofenceState;
+    }
+
+    public void geofenceState(Object state) {
+        this.geofenceState = state;
+    }
+
+    /** Opaque slot for InFlightTracker's window; null until the first tracked command. */
+    public Object outboundWindow() {
+        return outboundWindow;
+    }
+
+    /** The window, created with {@code factory} on first use. */
+    public Object outboundWindow(Supplier<?> factory) {
+        Object w = outboundWindow;
+        if (w == null) {
+            synchronized (this) {
+                w = outboundWindow;
+                if (w == null) outboundWindow = w = factory.get();
+            }
+        }
+        return w;
+    }
+}
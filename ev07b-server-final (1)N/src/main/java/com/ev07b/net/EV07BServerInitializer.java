@@ -3,6 +3,7 @@ package com.ev07b.net;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.timeout.IdleStateHandler;
+import com.ev07b.codec.EV07BFrameDecoder;
 import com.ev07b.handler.EV07BBusinessHandler;
 
 public class EV07BServerInitializer extends ChannelInitializer<SocketChannel> {
@@ -16,7 +17,7 @@ public class EV07BServerInitializer extends ChannelInitializer<SocketChannel> {
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
         ch.pipeline().addLast(new IdleStateHandler(0,0,60));
-        ch.pipeline().addLast(new EV07BFrameDecoder());
+        ch.pipeline().addLast(new EV07BFrameDecoder(false, EV07BFrameDecoder.Variant.LEGACY, EV07BFrameDecoder.DEFAULT_MAX_FRAME_LENGTH));
         ch.pipeline().addLast(new EV07BFrameEncoder());
         ch.pipeline().addLast(businessHandler);
     }
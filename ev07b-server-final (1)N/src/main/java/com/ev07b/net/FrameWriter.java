@@ -0,0 +1,102 @@
+package com.ev07b.net;
+
+import com.ev07b.util.CRC16;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
+/**
+ * FrameWriter
+ *
+ * Encodes outbound frames straight into (pooled, direct) buffers from the channel's allocator, in
+ * the same layout as {@link FrameUtil#buildFrame}:
+ * [0xAB][properties][lenLE][checksumLE][seqLE][body...]
+ *
+ * Usage: {@code ByteBuf f = begin(alloc, props, seq, bodyHint); f.writeByte(...)...; finish(f);}
+ * The body is written in place after the reserved header; {@link #finish} patches the length and
+ * the CRC. The CRC covers the body only, so a frame whose body is the same for many devices (the 0x7F
+ * success ACK, broadcast commands) is encoded once as a template and copied with just the sequence
+ * slot patched ({@link #fromTemplate}).
+ */
+public final class FrameWriter {
+
+    private static final byte HEADER = (byte) 0xAB;
+    public static final int HEADER_LENGTH = 8;
+    private static final int LEN_OFFSET = 2;
+    private static final int CRC_OFFSET = 4;
+    private static final int SEQ_OFFSET = 6;
+
+    // ACK per spec: cmd 0x7F, keyLen=0x01, key=0x00 (success); properties 0x00 (no ACK for ACK)
+    private static final byte[] ACK_TEMPLATE = FrameUtil.buildFrame((byte) 0x00, 0, new byte[] { (byte) 0x7F, 0x01, 0x00 });
+
+    private FrameWriter() {}
+
+    /** Allocate a frame buffer and write the header; the caller then appends the body. */
+    public static ByteBuf begin(ByteBufAllocator alloc, byte properties, int sequenceId, int bodySizeHint) {
+        ByteBuf out = alloc.directBuffer(HEADER_LENGTH + Math.max(bodySizeHint, 0));
+        out.writeByte(HEADER);
+        out.writeByte(properties);
+        out.writeShortLE(0);          // length, patched by finish()
+        out.writeShortLE(0);          // checksum, patched by finish()
+        out.writeShortLE(sequenceId);
+        return out;
+    }
+
+    /** Patch length and CRC over everything written after the header. Returns {@code frame}. */
+    public static ByteBuf finish(ByteBuf frame) {
+        int start = frame.readerIndex();
+        int bodyStart = start + HEADER_LENGTH;
+        int len = frame.writerIndex() - bodyStart;
+        frame.setShortLE(start + LEN_OFFSET, len);
+        frame.setShortLE(start + CRC_OFFSET, CRC16.crc16Ccitt(frame, bodyStart, len) & 0xFFFF);
+        return frame;
+    }
+
+    /** Complete frame around {@code body}. */
+    public static ByteBuf frame(ByteBufAllocator alloc, byte properties, int sequenceId, byte[] body) {
+        int len = body == null ? 0 : body.length;
+        ByteBuf out = begin(alloc, properties, sequenceId, len);
+        if (len > 0) out.writeBytes(body);
+        return finish(out);
+    }
+
+    /** Copy a finished frame to a byte[] (e.g. for the pending store) and release the buffer. */
+    public static byte[] toBytes(ByteBuf frame) {
+        try {
+            return ByteBufUtil.getBytes(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /** The standard 0x7F success ACK echoing {@code sequenceId}. */
+    public static ByteBuf ack(ByteBufAllocator alloc, int sequenceId) {
+        return fromTemplate(alloc, ACK_TEMPLATE, sequenceId);
+    }
+
+    /** Copy of a finished frame (see {@link #toBytes}) carrying {@code sequenceId}; length and CRC stay valid. */
+    public static ByteBuf fromTemplate(ByteBufAllocator alloc, byte[] template, int sequenceId) {
+        ByteBuf out = alloc.directBuffer(template.length);
+        out.writeBytes(template);
+        out.setShortLE(out.readerIndex() + SEQ_OFFSET, sequenceId);
+        return out;
+    }
+
+    /** Whether {@code frame} (readable from its reader index) is a 0x7F ACK. */
+    public static boolean isAck(ByteBuf frame) {
+        return frame.readableBytes() > HEADER_LENGTH && frame.getByte(frame.readerIndex() + HEADER_LENGTH) == (byte) 0x7F;
+    }
+
+    /** Sequence id of a finished frame. */
+    public static int sequenceOf(byte[] frame) {
+        return (frame[SEQ_OFFSET] & 0xFF) | (frame[SEQ_OFFSET + 1] & 0xFF) << 8;
+    }
+
+    /** Heap copy of a finished frame carrying {@code sequenceId}, e.g. for the pending store. */
+    public static byte[] fromTemplate(byte[] template, int sequenceId) {
+        byte[] out = template.clone();
+        out[SEQ_OFFSET] = (byte) sequenceId;
+        out[SEQ_OFFSET + 1] = (byte) (sequenceId >>> 8);
+        return out;
+    }
+}
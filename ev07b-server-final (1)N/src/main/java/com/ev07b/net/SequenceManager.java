@@ -1,16 +1,33 @@
 package com.ev07b.net;
 
 import org.springframework.stereotype.Component;
-import java.util.concurrent.ConcurrentHashMap;
+
+import com.ev07b.util.ConcurrentLongMap;
+import com.ev07b.util.DeviceKeys;
+
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class SequenceManager {
-    private final ConcurrentHashMap<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+    // Keyed by device key (DeviceKeys)
+    private final ConcurrentLongMap<AtomicInteger> counters = new ConcurrentLongMap<>();
 
     public int next(String deviceId) {
-        return counters.computeIfAbsent(deviceId, k -> new AtomicInteger((int)(System.nanoTime() & 0xFFFF)))
-                .updateAndGet(prev -> (prev + 1) & 0xFFFF);
+        return next(counter(deviceId));
+    }
+
+    /** The device's counter, for callers that cache it (see ChannelSession). */
+    public AtomicInteger counter(String deviceId) {
+        return counter(DeviceKeys.of(deviceId));
     }
-}
 
+    public AtomicInteger counter(long deviceKey) {
+        // No id (or the DeviceKeys registry is full): a throwaway counter rather than a shared one
+        if (deviceKey == DeviceKeys.NONE) return new AtomicInteger((int)(System.nanoTime() & 0xFFFF));
+        return counters.computeIfAbsent(deviceKey, k -> new AtomicInteger((int)(System.nanoTime() & 0xFFFF)));
+    }
+
+    public static int next(AtomicInteger counter) {
+        return counter.updateAndGet(prev -> (prev + 1) & 0xFFFF);
+    }
+}
@@ -1,7 +1,11 @@
 package com.ev07b.repos;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import com.ev07b.entities.DeviceEntity;
+import java.util.List;
 
 public interface DeviceRepository extends JpaRepository<DeviceEntity, String> {
+    @Query("select d.id from DeviceEntity d")
+    List<String> findAllIds();
 }
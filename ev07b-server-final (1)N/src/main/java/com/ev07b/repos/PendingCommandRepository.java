@@ -1,9 +1,14 @@
 package com.ev07b.repos;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import com.ev07b.entities.PendingCommandEntity;
 import java.util.List;
 
 public interface PendingCommandRepository extends JpaRepository<PendingCommandEntity, Long> {
     List<PendingCommandEntity> findByDeviceId(String deviceId);
+
+    /** Rows of [deviceId, count] for every device with something queued. */
+    @Query("select p.deviceId, count(p) from PendingCommandEntity p group by p.deviceId")
+    List<Object[]> countPerDevice();
 }
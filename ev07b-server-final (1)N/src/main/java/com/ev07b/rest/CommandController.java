@@ -0,0 +1,72 @@
+package com.ev07b.rest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import com.ev07b.services.BroadcastService;
+import io.netty.buffer.ByteBufUtil;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/api/commands")
+public class CommandController {
+
+    @Autowired
+    private BroadcastService broadcastService;
+
+    /**
+     * One key/value command for many devices:
+     * {"devices": [...] | "group": "connected" | "all", "command": 2, "key": 81, "value": "hex", "ack": true}.
+     * The body [command][keyLen][key][value] is encoded once; the response lists each device's status.
+     */
+    @PostMapping("/broadcast")
+    public CompletableFuture<Map<String,Object>> broadcast(@RequestBody Map<String,Object> body) {
+        List<String> targets;
+        byte[] value;
+        int command;
+        int key;
+        try {
+            Object group = body.get("group");
+            if (group != null && !(group instanceof String)) throw new IllegalArgumentException("'group' must be a string");
+            targets = broadcastService.resolveTargets(BroadcastService.deviceIds(body.get("devices")), (String) group);
+            command = byteField(body, "command", 0x02);
+            key = byteField(body, "key", -1);
+            if (key < 0) throw new IllegalArgumentException("'key' is required");
+            Object hex = body.get("value");
+            value = hex == null ? new byte[0] : ByteBufUtil.decodeHexDump(hex.toString().replace(" ", ""));
+            // keyLen is one byte and includes the key byte itself
+            if (value.length > 254) throw new IllegalArgumentException("'value' is longer than 254 bytes");
+        } catch (IllegalArgumentException ex) {
+            Map<String,Object> res = new HashMap<>();
+            res.put("sent", false);
+            res.put("reason", ex.getMessage());
+            return CompletableFuture.completedFuture(res);
+        }
+        boolean ack = !Boolean.FALSE.equals(body.get("ack"));
+
+        byte[] frameBody = new byte[3 + value.length];
+        frameBody[0] = (byte) command;
+        frameBody[1] = (byte) (1 + value.length); // includes key byte
+        frameBody[2] = (byte) key;
+        System.arraycopy(value, 0, frameBody, 3, value.length);
+        return broadcastService.broadcast(targets, ack ? (byte) 0x10 : (byte) 0x00, frameBody);
+    }
+
+    // Integer field in 0..255, or def when absent
+    private static int byteField(Map<String,Object> body, String name, int def) {
+        Object v = body.get(name);
+        if (v == null) return def;
+        if (!(v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte)) {
+            throw new IllegalArgumentException("'" + name + "' must be an integer");
+        }
+        long n = ((Number) v).longValue();
+        if (n < 0 || n > 0xFF) throw new IllegalArgumentException("'" + name + "' must be in 0..255, got " + n);
+        return (int) n;
+    }
+}
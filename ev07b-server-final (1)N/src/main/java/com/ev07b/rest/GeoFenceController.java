@@ -4,16 +4,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
 import com.ev07b.repos.GeofenceRepository;
 import com.ev07b.entities.GeofenceEntity;
 import com.ev07b.commands.DeviceConnectionManager;
+import com.ev07b.commands.InFlightTracker;
+import com.ev07b.services.BroadcastService;
 import com.ev07b.services.CommandService;
-import com.ev07b.net.FrameUtil;
+import com.ev07b.services.GeofenceCache;
+import com.ev07b.net.FrameWriter;
 import com.ev07b.net.SequenceManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/geofences")
@@ -22,6 +35,7 @@ public class GeoFenceController {
     private static final Logger log = LoggerFactory.getLogger(GeoFenceController.class);
     private static final byte CMD_CONFIGURATION = (byte) 0x02; // per spec: configuration command
     private static final byte KEY_GEOFENCE = (byte) 0x51;      // geofence key under configuration
+    private static final String INSERT_FENCE_SQL = "INSERT INTO geofence (device_id, name, payload, created_at) VALUES (?, ?, ?, ?)";
 
     @Autowired
     private GeofenceRepository geofenceRepo;
@@ -35,6 +49,18 @@ public class GeoFenceController {
     @Autowired
     private SequenceManager sequenceManager;
 
+    @Autowired
+    private GeofenceCache geofenceCache;
+
+    @Autowired
+    private BroadcastService broadcastService;
+
+    @Autowired
+    private InFlightTracker inFlight;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
     @GetMapping("/{deviceId}")
     public List<GeofenceEntity> listForDevice(@PathVariable String deviceId) {
         return geofenceRepo.findByDeviceId(deviceId);
@@ -42,68 +68,50 @@ public class GeoFenceController {
 
     @PostMapping("/{deviceId}")
     public GeofenceEntity create(@PathVariable String deviceId, @RequestBody Map<String,Object> body) {
-        // Accept simple circle geofence: radius (meters), center lat/lon in decimal degrees optional
-        int radius = body.getOrDefault("radius", 100) instanceof Number ? ((Number) body.get("radius")).intValue() : parseIntOr(body.get("radius"), 100);
-        double latD = body.getOrDefault("lat", 0.0) instanceof Number ? ((Number) body.get("lat")).doubleValue() : parseDoubleOr(body.get("lat"), 0.0);
-        double lonD = body.getOrDefault("lon", 0.0) instanceof Number ? ((Number) body.get("lon")).doubleValue() : parseDoubleOr(body.get("lon"), 0.0);
-
-        // Build flags LE per spec:
-        // Bit0-3: index (0)
-        // Bit4-7: points (0)
-        // Bit8: enable=1
-        // Bit9: direction (0=Out default)
-        // Bit10: type (0=circle)
-        // Bit16-31: radius meters
-        int flags = (1 << 8) | ((radius & 0xFFFF) << 16);
-
-        int lat_i = (int) Math.round(latD * 10_000_000); // use 1e7 like GPS key
-        int lon_i = (int) Math.round(lonD * 10_000_000);
-
-        // Store only key-value payload (flags LE + lat LE + lon LE)
-        byte[] keyValue = new byte[4 + 4 + 4];
-        // flags LE
-        keyValue[0] = (byte) (flags & 0xFF);
-        keyValue[1] = (byte) ((flags >>> 8) & 0xFF);
-        keyValue[2] = (byte) ((flags >>> 16) & 0xFF);
-        keyValue[3] = (byte) ((flags >>> 24) & 0xFF);
-        // lat LE
-        keyValue[4] = (byte) (lat_i & 0xFF);
-        keyValue[5] = (byte) ((lat_i >>> 8) & 0xFF);
-        keyValue[6] = (byte) ((lat_i >>> 16) & 0xFF);
-        keyValue[7] = (byte) ((lat_i >>> 24) & 0xFF);
-        // lon LE
-        keyValue[8]  = (byte) (lon_i & 0xFF);
-        keyValue[9]  = (byte) ((lon_i >>> 8) & 0xFF);
-        keyValue[10] = (byte) ((lon_i >>> 16) & 0xFF);
-        keyValue[11] = (byte) ((lon_i >>> 24) & 0xFF);
+        byte[] keyValue = circleKeyValue(body);
 
         GeofenceEntity entity = new GeofenceEntity(deviceId, "geofence-" + System.currentTimeMillis(), keyValue);
         GeofenceEntity saved = geofenceRepo.save(entity);
+        geofenceCache.invalidate(deviceId);
 
-        // Build message body: [cmd=0x02][keyLen][key=0x51][keyValue]
-        int keyLen = 1 + keyValue.length; // includes key byte
-        byte[] bodyBytes = new byte[1 + 1 + keyLen];
-        int i = 0;
-        bodyBytes[i++] = CMD_CONFIGURATION;
-        bodyBytes[i++] = (byte) keyLen;
-        bodyBytes[i++] = KEY_GEOFENCE;
-        System.arraycopy(keyValue, 0, bodyBytes, i, keyValue.length);
-
-        byte properties = 0x10; // request ACK
         int seq = sequenceManager.next(deviceId);
-        byte[] frame = FrameUtil.buildFrame(properties, seq, bodyBytes);
-
         io.netty.channel.Channel ch = connMgr.getChannel(deviceId);
         if (ch != null && ch.isActive()) {
             log.info("Sending geofence (cfg+key=0x51) to device {} seq={}", deviceId, seq);
-            ch.writeAndFlush(io.netty.buffer.Unpooled.wrappedBuffer(frame));
+            inFlight.send(ch, seq, configFrame(ch.alloc(), seq, keyValue), true);
         } else {
             log.info("Device offline; queueing geofence for {} seq={}", deviceId, seq);
-            commandService.queuePending(deviceId, frame);
+            commandService.queuePending(deviceId, FrameWriter.toBytes(configFrame(ByteBufAllocator.DEFAULT, seq, keyValue)));
         }
         return saved;
     }
 
+    /**
+     * Same circle geofence for many devices: {"devices": [...]} or {"group": "connected" | "all"} plus
+     * radius/lat/lon. The fence rows go in with one JDBC batch insert, the frame is encoded once and
+     * fanned out by BroadcastService; the response (per-device status) is produced without holding
+     * this thread.
+     */
+    @PostMapping("/broadcast")
+    public CompletableFuture<Map<String,Object>> broadcast(@RequestBody Map<String,Object> body) {
+        List<String> targets;
+        try {
+            targets = broadcastService.resolveTargets(BroadcastService.deviceIds(body.get("devices")), (String) body.get("group"));
+        } catch (IllegalArgumentException ex) {
+            Map<String,Object> res = new HashMap<>();
+            res.put("sent", false);
+            res.put("reason", ex.getMessage());
+            return CompletableFuture.completedFuture(res);
+        }
+        byte[] keyValue = circleKeyValue(body);
+
+        insertFences(targets, "geofence-" + System.currentTimeMillis(), keyValue);
+        targets.forEach(geofenceCache::invalidate);
+
+        log.info("Broadcasting geofence (cfg+key=0x51) to {} device(s)", targets.size());
+        return broadcastService.broadcast(targets, (byte) 0x10, configBody(KEY_GEOFENCE, keyValue));
+    }
+
     @PostMapping("/{deviceId}/send/{geofenceId}")
     public Map<String,Object> send(@PathVariable String deviceId, @PathVariable Long geofenceId) {
         Map<String,Object> res = new HashMap<>();
@@ -114,27 +122,16 @@ public class GeoFenceController {
             return res;
         }
 
-        // Use stored keyValue to build proper message body [cmd][keyLen][key][value]
         byte[] kv = g.getPayload();
-        int keyLen = 1 + (kv == null ? 0 : kv.length);
-        byte[] bodyBytes = new byte[1 + 1 + keyLen];
-        int i = 0;
-        bodyBytes[i++] = CMD_CONFIGURATION;
-        bodyBytes[i++] = (byte) keyLen;
-        bodyBytes[i++] = KEY_GEOFENCE;
-        if (kv != null && kv.length > 0) System.arraycopy(kv, 0, bodyBytes, i, kv.length);
-
-        byte properties = 0x10;
         int seq = sequenceManager.next(deviceId);
-        byte[] frame = FrameUtil.buildFrame(properties, seq, bodyBytes);
 
         io.netty.channel.Channel ch = connMgr.getChannel(deviceId);
         if (ch != null && ch.isActive()) {
-            ch.writeAndFlush(io.netty.buffer.Unpooled.wrappedBuffer(frame));
+            inFlight.send(ch, seq, configFrame(ch.alloc(), seq, kv), true);
             res.put("sent", true);
             res.put("seq", seq);
         } else {
-            commandService.queuePending(deviceId, frame);
+            commandService.queuePending(deviceId, FrameWriter.toBytes(configFrame(ByteBufAllocator.DEFAULT, seq, kv)));
             res.put("sent", false);
             res.put("queued", true);
             res.put("seq", seq);
@@ -142,6 +139,88 @@ public class GeoFenceController {
         return res;
     }
 
+    // One JDBC batch for all rows: IDENTITY ids keep Hibernate from batching saveAll, one INSERT per device
+    private void insertFences(List<String> deviceIds, String name, byte[] keyValue) {
+        if (deviceIds.isEmpty()) return;
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        jdbc.batchUpdate(INSERT_FENCE_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setString(1, deviceIds.get(i));
+                ps.setString(2, name);
+                ps.setBytes(3, keyValue);
+                ps.setTimestamp(4, now, utc);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return deviceIds.size();
+            }
+        });
+    }
+
+    // Circle geofence from the request: radius (meters), center lat/lon in decimal degrees optional
+    private static byte[] circleKeyValue(Map<String,Object> body) {
+        int radius = body.getOrDefault("radius", 100) instanceof Number ? ((Number) body.get("radius")).intValue() : parseIntOr(body.get("radius"), 100);
+        double latD = body.getOrDefault("lat", 0.0) instanceof Number ? ((Number) body.get("lat")).doubleValue() : parseDoubleOr(body.get("lat"), 0.0);
+        double lonD = body.getOrDefault("lon", 0.0) instanceof Number ? ((Number) body.get("lon")).doubleValue() : parseDoubleOr(body.get("lon"), 0.0);
+
+        // Build flags LE per spec:
+        // Bit0-3: index (0)
+        // Bit4-7: points (0)
+        // Bit8: enable=1
+        // Bit9: direction (0=Out default)
+        // Bit10: type (0=circle)
+        // Bit16-31: radius meters
+        int flags = (1 << 8) | ((radius & 0xFFFF) << 16);
+
+        int lat_i = (int) Math.round(latD * 10_000_000); // use 1e7 like GPS key
+        int lon_i = (int) Math.round(lonD * 10_000_000);
+
+        // Store only key-value payload (flags LE + lat LE + lon LE)
+        byte[] keyValue = new byte[4 + 4 + 4];
+        // flags LE
+        keyValue[0] = (byte) (flags & 0xFF);
+        keyValue[1] = (byte) ((flags >>> 8) & 0xFF);
+        keyValue[2] = (byte) ((flags >>> 16) & 0xFF);
+        keyValue[3] = (byte) ((flags >>> 24) & 0xFF);
+        // lat LE
+        keyValue[4] = (byte) (lat_i & 0xFF);
+        keyValue[5] = (byte) ((lat_i >>> 8) & 0xFF);
+        keyValue[6] = (byte) ((lat_i >>> 16) & 0xFF);
+        keyValue[7] = (byte) ((lat_i >>> 24) & 0xFF);
+        // lon LE
+        keyValue[8]  = (byte) (lon_i & 0xFF);
+        keyValue[9]  = (byte) ((lon_i >>> 8) & 0xFF);
+        keyValue[10] = (byte) ((lon_i >>> 16) & 0xFF);
+        keyValue[11] = (byte) ((lon_i >>> 24) & 0xFF);
+        return keyValue;
+    }
+
+    // Configuration body [cmd=0x02][keyLen][key][keyValue]
+    private static byte[] configBody(byte key, byte[] kv) {
+        int kvLen = kv == null ? 0 : kv.length;
+        byte[] out = new byte[3 + kvLen];
+        out[0] = CMD_CONFIGURATION;
+        out[1] = (byte) (1 + kvLen); // includes key byte
+        out[2] = key;
+        if (kvLen > 0) System.arraycopy(kv, 0, out, 3, kvLen);
+        return out;
+    }
+
+    // Frame with body [cmd=0x02][keyLen][key=0x51][keyValue], ACK requested, encoded into a pooled buffer
+    private static ByteBuf configFrame(ByteBufAllocator alloc, int seq, byte[] kv) {
+        int kvLen = kv == null ? 0 : kv.length;
+        int keyLen = 1 + kvLen; // includes key byte
+        ByteBuf frame = FrameWriter.begin(alloc, (byte) 0x10, seq, 2 + keyLen);
+        frame.writeByte(CMD_CONFIGURATION);
+        frame.writeByte(keyLen);
+        frame.writeByte(KEY_GEOFENCE);
+        if (kvLen > 0) frame.writeBytes(kv);
+        return FrameWriter.finish(frame);
+    }
+
     private static int parseIntOr(Object v, int def) {
         try {
             if (v instanceof String) return Integer.parseInt((String) v);
@@ -0,0 +1,23 @@
+package com.ev07b.rest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import com.ev07b.metrics.LatencyMetrics;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/latency")
+public class LatencyController {
+
+    @Autowired
+    private LatencyMetrics latency;
+
+    /** Percentiles of the last completed interval (app.latency.interval-ms), per command id. */
+    @GetMapping
+    public Map<String, Object> latest() {
+        return latency.snapshot();
+    }
+}
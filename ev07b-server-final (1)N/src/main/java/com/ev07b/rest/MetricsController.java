@@ -0,0 +1,20 @@
+package com.ev07b.rest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import com.ev07b.metrics.IngestionMetrics;
+
+@RestController
+public class MetricsController {
+
+    private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Autowired
+    private IngestionMetrics metrics;
+
+    @GetMapping(value = "/metrics", produces = PROMETHEUS_TEXT)
+    public String metrics() {
+        return metrics.toPrometheus();
+    }
+}
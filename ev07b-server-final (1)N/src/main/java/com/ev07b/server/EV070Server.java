@@ -3,25 +3,67 @@ package com.ev07b.server;
 import com.ev07b.codec.EV07BEncoder;
 import com.ev07b.codec.EV07BFrameDecoder;
 import com.ev07b.handler.EV07BBusinessHandler;
+import com.ev07b.handler.FlushCoalescingHandler;
+import com.ev07b.handler.IdleSessionReaper;
+import com.ev07b.handler.OutboundGate;
+import com.ev07b.metrics.ChannelTrafficHandler;
+import com.ev07b.metrics.IngestionMetrics;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * EV070Server - TCP listener for EV04/EV07 devices.
  * Accepts an EV07BBusinessHandler instance (typically a Spring bean) to install into Netty pipeline.
+ *
+ * Transport is native epoll when available on Linux (or forced via {@link Options#transport}), NIO
+ * otherwise. With epoll, {@link Options#acceptors} > 1 binds that many server channels to the same
+ * port with SO_REUSEPORT, each on its own boss event loop, so the kernel spreads accepts across them.
  */
 public class EV070Server {
 
-    private final int port;
+    public enum Transport { AUTO, EPOLL, NIO }
+
+    /** Listener settings; defaults match the previous hard-coded behaviour. */
+    public static final class Options {
+        public int port = 7000;
+        public Transport transport = Transport.AUTO;
+        public int acceptors = 1;          // > 1 needs epoll (SO_REUSEPORT)
+        public int bossThreads = 1;        // raised to 'acceptors' when needed
+        public int workerThreads = 0;      // 0 = Netty default (2 x cores)
+        public int backlog = 1024;
+        public int receiveBufferSize = 0;  // 0 = OS default
+        public int sendBufferSize = 0;     // 0 = OS default
+        public int writeBufferLowWaterMark = 32 * 1024;
+        public int writeBufferHighWaterMark = 64 * 1024;
+        public boolean flushCoalescing = true;     // one flush per read batch instead of one per reply
+        public long flushMaxDeferralMicros = 1000;
+        public EV07BFrameDecoder.Variant decoderVariant = EV07BFrameDecoder.Variant.EV04;
+        public int maxFrameLength = EV07BFrameDecoder.DEFAULT_MAX_FRAME_LENGTH;
+    }
+
+    private final Options options;
     private final EV07BBusinessHandler businessHandler;
-    private Channel serverChannel;
+    private final boolean zeroCopyDecoding;
+    private final IngestionMetrics metrics;
+    private final ChannelTrafficHandler trafficHandler;
+    private final IdleSessionReaper idleReaper;
+    private final OutboundGate outboundGate;
+    private final List<Channel> serverChannels = new ArrayList<>();
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
 
@@ -32,22 +74,82 @@ public class EV070Server {
 
     /** Create server with port and a business handler instance */
     public EV070Server(int port, EV07BBusinessHandler businessHandler) {
-        this.port = port;
+        this(port, businessHandler, false);
+    }
+
+    /** Create server; with zeroCopyDecoding the decoder hands out retained slices instead of byte[] copies */
+    public EV070Server(int port, EV07BBusinessHandler businessHandler, boolean zeroCopyDecoding) {
+        this(portOnly(port), businessHandler, zeroCopyDecoding);
+    }
+
+    public EV070Server(Options options, EV07BBusinessHandler businessHandler, boolean zeroCopyDecoding) {
+        this(options, businessHandler, zeroCopyDecoding, new IngestionMetrics());
+    }
+
+    /** Create server reporting decode/traffic counters into {@code metrics} (typically the Spring bean) */
+    public EV070Server(Options options, EV07BBusinessHandler businessHandler, boolean zeroCopyDecoding, IngestionMetrics metrics) {
+        this(options, businessHandler, zeroCopyDecoding, metrics, null, null);
+    }
+
+    /**
+     * As above, closing connections that go quiet through {@code idleReaper} and holding back writes
+     * to unwritable channels through {@code outboundGate} (either may be null)
+     */
+    public EV070Server(Options options, EV07BBusinessHandler businessHandler, boolean zeroCopyDecoding, IngestionMetrics metrics,
+                       IdleSessionReaper idleReaper, OutboundGate outboundGate) {
+        this.options = options;
+        this.idleReaper = idleReaper;
+        this.outboundGate = outboundGate;
         this.businessHandler = businessHandler;
+        this.zeroCopyDecoding = zeroCopyDecoding;
+        this.metrics = metrics;
+        this.trafficHandler = new ChannelTrafficHandler(metrics);
+    }
+
+    private static Options portOnly(int port) {
+        Options o = new Options();
+        o.port = port;
+        return o;
     }
 
     public void start() throws InterruptedException {
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        boolean epoll = useEpoll();
+        int acceptors = Math.max(1, options.acceptors);
+        if (acceptors > 1 && !epoll) {
+            System.err.println("[EV070Server] SO_REUSEPORT needs the epoll transport; using a single acceptor");
+            acceptors = 1;
+        }
+        int bossThreads = Math.max(Math.max(1, options.bossThreads), acceptors);
+        int workerThreads = Math.max(0, options.workerThreads);
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(bossThreads);
+            workerGroup = new EpollEventLoopGroup(workerThreads);
+        } else {
+            bossGroup = new NioEventLoopGroup(bossThreads);
+            workerGroup = new NioEventLoopGroup(workerThreads);
+        }
 
         ServerBootstrap bootstrap = new ServerBootstrap();
         bootstrap.group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, options.backlog)
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(trafficHandler);
+                        if (idleReaper != null && idleReaper.isEnabled()) {
+                            ch.pipeline().addLast(idleReaper.newHandler());
+                        }
+                        if (outboundGate != null && outboundGate.isEnabled()) {
+                            // Sees frames after encoding and flush coalescing, i.e. what reaches the outbound buffer
+                            ch.pipeline().addLast(outboundGate.newHandler());
+                        }
+                        if (options.flushCoalescing) {
+                            ch.pipeline().addLast(new FlushCoalescingHandler(
+                                    options.flushMaxDeferralMicros, TimeUnit.MICROSECONDS, metrics.flushCounters()));
+                        }
                         // Add your decoder/encoder
-                        ch.pipeline().addLast(new EV07BFrameDecoder());
+                        ch.pipeline().addLast(new EV07BFrameDecoder(zeroCopyDecoding, options.decoderVariant, options.maxFrameLength, metrics));
                         ch.pipeline().addLast(new EV07BEncoder());
 
                         // Install the Spring-managed handler, or if none provided, try to create one (not recommended)
@@ -61,23 +163,59 @@ public class EV070Server {
                     }
                 })
                 .childOption(ChannelOption.SO_KEEPALIVE, true)
-                .childOption(ChannelOption.TCP_NODELAY, true);
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        options.writeBufferLowWaterMark, Math.max(options.writeBufferLowWaterMark, options.writeBufferHighWaterMark)));
+        if (options.receiveBufferSize > 0) {
+            // Set on the listener too so accepted sockets inherit it before the TCP window is negotiated
+            bootstrap.option(ChannelOption.SO_RCVBUF, options.receiveBufferSize)
+                     .childOption(ChannelOption.SO_RCVBUF, options.receiveBufferSize);
+        }
+        if (options.sendBufferSize > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, options.sendBufferSize);
+        }
+        if (acceptors > 1) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+
+        // Each bind registers its server channel on the next boss loop, so acceptors don't share a thread
+        for (int i = 0; i < acceptors; i++) {
+            serverChannels.add(bootstrap.bind(options.port).sync().channel());
+        }
+        System.out.println("EV07B TCP Server started on port " + options.port + " (transport=" + (epoll ? "epoll" : "nio")
+                + ", acceptors=" + acceptors + ", workers=" + (workerThreads == 0 ? "default" : workerThreads) + ")");
+    }
+
+    private boolean useEpoll() {
+        switch (options.transport) {
+            case NIO:
+                return false;
+            case EPOLL:
+                if (!Epoll.isAvailable()) {
+                    System.err.println("[EV070Server] epoll requested but unavailable (" + Epoll.unavailabilityCause() + "); using NIO");
+                    return false;
+                }
+                return true;
+            default:
+                return Epoll.isAvailable();
+        }
+    }
 
-        ChannelFuture future = bootstrap.bind(port).sync();
-        serverChannel = future.channel();
-        System.out.println("EV07B TCP Server started on port " + port);
+    /** Flushes requested by handlers vs. flushes that reached the socket. */
+    public FlushCoalescingHandler.Counters getFlushCounters() {
+        return metrics.flushCounters();
     }
 
     public void stop() {
         try {
-            if (serverChannel != null) {
-                serverChannel.close().sync();
+            for (Channel ch : serverChannels) {
+                ch.close().sync();
             }
         } catch (InterruptedException ignored) {
         } finally {
             if (bossGroup != null) bossGroup.shutdownGracefully();
             if (workerGroup != null) workerGroup.shutdownGracefully();
-            System.out.println("EV07B TCP Server stopped.");
+            System.out.println("EV07B TCP Server stopped. Flushes: " + metrics.flushCounters());
         }
     }
 }
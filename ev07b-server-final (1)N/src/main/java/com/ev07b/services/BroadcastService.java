@@ -0,0 +1,185 @@
+package com.ev07b.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.ev07b.commands.DeviceConnectionManager;
+import com.ev07b.commands.InFlightTracker;
+import com.ev07b.handler.OutboundGate;
+import com.ev07b.net.ChannelSession;
+import com.ev07b.net.FrameWriter;
+import com.ev07b.net.SequenceManager;
+import com.ev07b.repos.DeviceRepository;
+import com.ev07b.util.DeviceKeys;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * BroadcastService
+ *
+ * Sends one command to many devices. The frame is encoded once; since the CRC only covers the body,
+ * each device gets a copy of that template with its own sequence id patched in. Connected devices are
+ * grouped by event loop and each loop gets a single task that writes to all of its channels, instead
+ * of one cross-thread hop per device. Offline devices are queued with one batched insert.
+ *
+ * Frames requesting an ACK go through the InFlightTracker like any other command, so device ACKs
+ * are matched, lost frames are re-sent and unacknowledged ones end up in the pending store. A
+ * device's status reflects the first transmission: "sent" once written, "queued" if it went to the
+ * pending store instead (tracker backlog full, channel closed, or held back by the OutboundGate).
+ *
+ * The result completes once every write has completed (or after app.broadcast.write-timeout-ms, with
+ * the stragglers reported as "pending"), so callers can hand it back asynchronously without holding
+ * a thread per device.
+ */
+@Service
+public class BroadcastService {
+
+    public static final String SENT = "sent";
+    public static final String QUEUED = "queued";
+    public static final String FAILED = "failed";
+    public static final String PENDING = "pending";
+
+    private final DeviceConnectionManager connMgr;
+    private final SequenceManager sequenceManager;
+    private final CommandService commandService;
+    private final DeviceRepository deviceRepo;
+    private final InFlightTracker inFlight;
+    private final long writeTimeoutMs;
+
+    public BroadcastService(DeviceConnectionManager connMgr,
+                            SequenceManager sequenceManager,
+                            CommandService commandService,
+                            DeviceRepository deviceRepo,
+                            InFlightTracker inFlight,
+                            @Value("${app.broadcast.write-timeout-ms:10000}") long writeTimeoutMs) {
+        this.connMgr = connMgr;
+        this.sequenceManager = sequenceManager;
+        this.commandService = commandService;
+        this.deviceRepo = deviceRepo;
+        this.inFlight = inFlight;
+        this.writeTimeoutMs = writeTimeoutMs;
+    }
+
+    /**
+     * Target list of a broadcast request: the explicit {@code deviceIds}, or a {@code group} of
+     * "connected" (devices with a live channel) or "all" (every row of the device table).
+     */
+    public List<String> resolveTargets(Collection<String> deviceIds, String group) {
+        if (deviceIds != null && !deviceIds.isEmpty()) return new ArrayList<>(deviceIds);
+        if ("connected".equalsIgnoreCase(group)) return connectedDeviceIds();
+        if ("all".equalsIgnoreCase(group)) return deviceRepo.findAllIds();
+        throw new IllegalArgumentException("Expected 'devices' or group 'connected' | 'all', got group=" + group);
+    }
+
+    /** The "devices" array of a JSON request body as ids; null when absent. */
+    public static List<String> deviceIds(Object json) {
+        if (!(json instanceof Collection)) return null;
+        List<String> out = new ArrayList<>();
+        for (Object o : (Collection<?>) json) {
+            if (o != null) out.add(o.toString());
+        }
+        return out;
+    }
+
+    /** Ids of every device with a registered, active channel. */
+    public List<String> connectedDeviceIds() {
+        List<String> ids = new ArrayList<>(connMgr.size());
+        connMgr.forEach((key, ch) -> {
+            if (ch.isActive()) ids.add(DeviceKeys.toId(key));
+        });
+        return ids;
+    }
+
+    /**
+     * Send {@code body} with frame properties {@code properties} to every device in {@code deviceIds}
+     * (duplicates ignored). The returned map holds the totals and a {"status", "seq"} entry per device.
+     */
+    public CompletableFuture<Map<String, Object>> broadcast(Collection<String> deviceIds, byte properties, byte[] body) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(deviceIds));
+        byte[] template = FrameWriter.toBytes(FrameWriter.frame(ByteBufAllocator.DEFAULT, properties, 0, body));
+
+        int n = ids.size();
+        int[] seqs = new int[n];
+        AtomicReferenceArray<String> status = new AtomicReferenceArray<>(n);
+        Map<EventLoop, List<Integer>> byLoop = new IdentityHashMap<>();
+        Channel[] channels = new Channel[n];
+        List<String> offlineIds = new ArrayList<>();
+        List<byte[]> offlineFrames = new ArrayList<>();
+
+        for (int i = 0; i < n; i++) {
+            String id = ids.get(i);
+            Channel ch = connMgr.getChannel(id);
+            ChannelSession session = ChannelSession.get(ch);
+            if (ch != null && ch.isActive()) {
+                seqs[i] = session != null && session.isIdentified() ? session.nextSequence() : sequenceManager.next(id);
+                channels[i] = ch;
+                byLoop.computeIfAbsent(ch.eventLoop(), l -> new ArrayList<>()).add(i);
+            } else {
+                seqs[i] = sequenceManager.next(id);
+                offlineIds.add(id);
+                offlineFrames.add(FrameWriter.fromTemplate(template, seqs[i]));
+                status.set(i, QUEUED);
+            }
+        }
+        commandService.queuePending(offlineIds, offlineFrames);
+
+        CompletableFuture<Void> writes = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(n - offlineIds.size());
+        if (remaining.get() == 0) writes.complete(null);
+        for (Map.Entry<EventLoop, List<Integer>> e : byLoop.entrySet()) {
+            List<Integer> targets = e.getValue();
+            e.getKey().execute(() -> {
+                for (int i : targets) {
+                    final int idx = i;
+                    Channel ch = channels[idx];
+                    inFlight.send(ch, seqs[idx], FrameWriter.fromTemplate(ch.alloc(), template, seqs[idx]), true).addListener(f -> {
+                        status.set(idx, f.isSuccess() ? SENT : f.cause() instanceof OutboundGate.SpilledException ? QUEUED : FAILED);
+                        if (remaining.decrementAndGet() == 0) writes.complete(null);
+                    });
+                }
+            });
+        }
+
+        System.out.println("[Broadcast] " + n + " device(s): " + (n - offlineIds.size()) + " online over "
+                + byLoop.size() + " event loop(s), " + offlineIds.size() + " queued");
+        return writes.orTimeout(writeTimeoutMs, TimeUnit.MILLISECONDS)
+                .handle((v, ex) -> result(ids, seqs, status));
+    }
+
+    private static Map<String, Object> result(List<String> ids, int[] seqs, AtomicReferenceArray<String> status) {
+        Map<String, Object> devices = new LinkedHashMap<>();
+        Map<String, Integer> totals = new LinkedHashMap<>();
+        totals.put(SENT, 0);
+        totals.put(QUEUED, 0);
+        totals.put(FAILED, 0);
+        totals.put(PENDING, 0);
+        for (int i = 0; i < ids.size(); i++) {
+            String s = status.get(i);
+            if (s == null) s = PENDING;
+            totals.merge(s, 1, Integer::sum);
+            Map<String, Object> d = new HashMap<>();
+            d.put("status", s);
+            d.put("seq", seqs[i]);
+            devices.put(ids.get(i), d);
+        }
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("total", ids.size());
+        res.putAll(totals);
+        res.put("devices", devices);
+        return res;
+    }
+}
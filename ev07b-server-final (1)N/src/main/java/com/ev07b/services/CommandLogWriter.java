@@ -0,0 +1,468 @@
+package com.ev07b.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CommandLogWriter
+ *
+ * Bounded in-memory queue in front of the command_log table. Processors append rows without touching
+ * the database; a background thread drains the queue and writes multi-row INSERTs of up to batchSize
+ * rows, waiting at most lingerMs for a batch to fill. When the queue is full the configured overflow
+ * policy applies: BLOCK the caller, DROP_OLDEST queued row, or SPILL the row to a local file. Under
+ * SPILL a live batch the database rejects is spilled as well (counted as spilled, not failed), so a
+ * database outage doesn't lose the rows in flight.
+ *
+ * Spilled rows are flushed to the file as they are written (and fsynced at most every
+ * SPILL_SYNC_INTERVAL_MS). The writer thread replays the file one batch at a time, interleaved with
+ * live batches rather than waiting for the queue to go idle, so the file drains even under sustained
+ * load. The file is rotated to "*.replay" before replaying; after each committed batch the replay
+ * offset is recorded in "*.replay.offset", so a failed batch or a restart resumes after the last
+ * committed row instead of inserting earlier rows again. A fully replayed file is deleted.
+ */
+@Component
+public class CommandLogWriter {
+
+    public enum OverflowPolicy { BLOCK, DROP_OLDEST, SPILL }
+
+    private static final String INSERT_PREFIX = "INSERT INTO command_log (device_id, command_id, payload, created_at) VALUES ";
+    private static final String ROW_PARAMS = "(?, ?, ?, ?)";
+    // Postgres caps bind parameters per statement at 32767
+    private static final int MAX_BATCH_ROWS = 32767 / 4;
+
+    private final JdbcTemplate jdbc;
+    private final int batchSize;
+    private final long lingerMs;
+    private final OverflowPolicy overflowPolicy;
+    private final Path spillFile;
+    private final BlockingQueue<Entry> queue;
+    private final String fullBatchSql;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private static final long SPILL_SYNC_INTERVAL_MS = 100;
+    private static final long REPLAY_RETRY_MS = 1000;
+
+    private DataOutputStream spillOut;
+    private FileOutputStream spillFos;
+    private long lastSpillSync;
+    private volatile boolean spillPending;
+
+    // Replay state, owned by the writer thread (and by stop() once the writer has exited)
+    private DataInputStream replayIn;
+    private CountingInputStream replayCount;
+    private long replayRetryAt;
+    private volatile boolean running;
+    private Thread writerThread;
+
+    static final class Entry {
+        final String deviceId;
+        final int commandId;
+        final byte[] payload;
+        final long createdAt;
+
+        Entry(String deviceId, int commandId, byte[] payload, long createdAt) {
+            this.deviceId = deviceId;
+            this.commandId = commandId;
+            this.payload = payload;
+            this.createdAt = createdAt;
+        }
+    }
+
+    @Autowired
+    public CommandLogWriter(JdbcTemplate jdbc,
+                            @Value("${app.command-log.queue-capacity:10000}") int queueCapacity,
+                            @Value("${app.command-log.batch-size:500}") int batchSize,
+                            @Value("${app.command-log.linger-ms:50}") long lingerMs,
+                            @Value("${app.command-log.overflow-policy:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                            @Value("${app.command-log.spill-file:${java.io.tmpdir}/ev07b-command-log.spill}") String spillFile) {
+        this.jdbc = jdbc;
+        this.batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH_ROWS));
+        this.lingerMs = lingerMs;
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = Paths.get(spillFile);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.fullBatchSql = insertSql(this.batchSize);
+    }
+
+    @PostConstruct
+    public void start() {
+        // Pick up rows spilled by a previous run
+        spillPending = Files.exists(spillFile) || Files.exists(replayFile());
+        running = true;
+        writerThread = new Thread(this::runWriter, "command-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (writerThread != null) {
+            writerThread.interrupt();
+            writerThread.join(5000);
+        }
+        // Drain whatever is left synchronously
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            writeLive(batch);
+            batch.clear();
+        }
+        while (hasSpill() && replayStep()) {
+            // replay until done or the database fails
+        }
+        closeReplay();
+        synchronized (this) {
+            closeSpillOut();
+        }
+    }
+
+    /** Queue one command_log row. Never touches the database on the calling thread. */
+    public void append(String deviceId, int commandId, byte[] payload) {
+        Entry e = new Entry(deviceId, commandId, payload, System.currentTimeMillis());
+        if (queue.offer(e)) {
+            queued.increment();
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(e);
+                    queued.increment();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    dropped.increment();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(e)) {
+                    if (queue.poll() != null) dropped.increment();
+                }
+                queued.increment();
+                break;
+            case SPILL:
+                spill(e);
+                break;
+        }
+    }
+
+    public long getQueued() { return queued.sum(); }
+    public long getWritten() { return written.sum(); }
+    public long getDropped() { return dropped.sum(); }
+    public long getSpilled() { return spilled.sum(); }
+    public long getFailed() { return failed.sum(); }
+    public int getBacklog() { return queue.size(); }
+
+    private void runWriter() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Entry first = queue.poll(lingerMs > 0 ? lingerMs : 100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // Idle: replay spilled rows until new work arrives
+                    while (queue.isEmpty() && replayDue() && replayStep()) {
+                        // next batch
+                    }
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) continue;
+                    long waitNs = deadline - System.nanoTime();
+                    if (waitNs <= 0) break;
+                    Entry next = queue.poll(waitNs, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                writeLive(batch);
+                // One spilled batch per live batch, so the spill file also drains under sustained load
+                if (replayDue()) replayStep();
+            } catch (InterruptedException ex) {
+                // Woken up by stop(): don't lose the rows already taken off the queue
+                writeLive(batch);
+                if (!running) break;
+            } catch (Exception ex) {
+                System.err.println("[CommandLogWriter] Writer loop error: " + ex.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Under SPILL a batch the database rejected goes to the spill file instead of being lost
+    private void writeLive(List<Entry> batch) {
+        boolean spill = overflowPolicy == OverflowPolicy.SPILL;
+        if (writeBatch(batch, !spill) || !spill) return;
+        for (Entry e : batch) spill(e);
+        System.err.println("[CommandLogWriter] Spilled " + batch.size() + " rows after a failed write");
+    }
+
+    private boolean writeBatch(List<Entry> batch, boolean countFailure) {
+        if (batch.isEmpty()) return true;
+        String sql = batch.size() == batchSize ? fullBatchSql : insertSql(batch.size());
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        try {
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(sql);
+                int p = 1;
+                for (Entry e : batch) {
+                    ps.setString(p++, e.deviceId);
+                    ps.setInt(p++, e.commandId);
+                    ps.setBytes(p++, e.payload);
+                    ps.setTimestamp(p++, new Timestamp(e.createdAt), utc);
+                }
+                return ps;
+            });
+            written.add(batch.size());
+            return true;
+        } catch (Exception ex) {
+            if (countFailure) failed.add(batch.size());
+            System.err.println("[CommandLogWriter] Failed to write " + batch.size() + " rows: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sb = new StringBuilder(INSERT_PREFIX.length() + rows * (ROW_PARAMS.length() + 2));
+        sb.append(INSERT_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(ROW_PARAMS);
+        }
+        return sb.toString();
+    }
+
+    // ---- Spill file: [utf deviceId][int commandId][long createdAt][int len][payload] per row ----
+
+    private synchronized void spill(Entry e) {
+        try {
+            if (spillOut == null) {
+                Path dir = spillFile.toAbsolutePath().getParent();
+                if (dir != null) Files.createDirectories(dir);
+                spillFos = new FileOutputStream(spillFile.toFile(), true);
+                spillOut = new DataOutputStream(new BufferedOutputStream(spillFos));
+            }
+            spillOut.writeUTF(e.deviceId == null ? "" : e.deviceId);
+            spillOut.writeInt(e.commandId);
+            spillOut.writeLong(e.createdAt);
+            byte[] pl = e.payload == null ? new byte[0] : e.payload;
+            spillOut.writeInt(pl.length);
+            spillOut.write(pl);
+            // Hand the row to the OS right away; fsync at a bounded rate
+            spillOut.flush();
+            long now = System.currentTimeMillis();
+            if (now - lastSpillSync >= SPILL_SYNC_INTERVAL_MS) {
+                spillFos.getFD().sync();
+                lastSpillSync = now;
+            }
+            spilled.increment();
+            spillPending = true;
+        } catch (IOException ex) {
+            dropped.increment();
+            System.err.println("[CommandLogWriter] Spill failed, row dropped: " + ex.getMessage());
+        }
+    }
+
+    // Caller holds the monitor
+    private void closeSpillOut() {
+        if (spillOut == null) return;
+        try {
+            spillOut.flush();
+            spillFos.getFD().sync();
+            spillOut.close();
+        } catch (IOException ex) {
+            System.err.println("[CommandLogWriter] Cannot close spill file: " + ex.getMessage());
+        }
+        spillOut = null;
+        spillFos = null;
+    }
+
+    private Path replayFile() {
+        return spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+    }
+
+    private Path offsetFile() {
+        return spillFile.resolveSibling(spillFile.getFileName() + ".replay.offset");
+    }
+
+    private boolean hasSpill() {
+        return spillPending || replayIn != null;
+    }
+
+    private boolean replayDue() {
+        return hasSpill() && System.currentTimeMillis() >= replayRetryAt;
+    }
+
+    /**
+     * Replay at most one batch of spilled rows. Returns true when it made progress (a batch was
+     * committed or a file finished), false when there was nothing to do or the database failed.
+     */
+    private boolean replayStep() {
+        if (replayIn == null && !openReplay()) return false;
+        List<Entry> batch = new ArrayList<>(batchSize);
+        boolean end = false;
+        try {
+            while (batch.size() < batchSize) {
+                String deviceId;
+                try {
+                    deviceId = replayIn.readUTF();
+                } catch (EOFException eof) {
+                    end = true;
+                    break;
+                }
+                int commandId = replayIn.readInt();
+                long createdAt = replayIn.readLong();
+                byte[] pl = new byte[replayIn.readInt()];
+                replayIn.readFully(pl);
+                batch.add(new Entry(deviceId, commandId, pl, createdAt));
+            }
+        } catch (IOException ex) {
+            // A torn last record (crash while spilling): everything before it is replayed
+            System.err.println("[CommandLogWriter] Spill replay truncated: " + ex.getMessage());
+            end = true;
+        }
+        long consumed = replayCount.count;
+        if (!batch.isEmpty()) {
+            // Not counted as failed: the rows stay in the file and are retried
+            if (!writeBatch(batch, false)) {
+                // Database unavailable: reopen at the last committed offset later
+                closeReplay();
+                replayRetryAt = System.currentTimeMillis() + REPLAY_RETRY_MS;
+                return false;
+            }
+            saveReplayOffset(consumed);
+        }
+        if (end) {
+            closeReplay();
+            try {
+                Files.deleteIfExists(replayFile());
+                Files.deleteIfExists(offsetFile());
+            } catch (IOException ex) {
+                System.err.println("[CommandLogWriter] Cannot delete replayed spill file: " + ex.getMessage());
+            }
+        }
+        return true;
+    }
+
+    // Rotate the spill file to the replay file (unless one is left over) and position after the committed rows
+    private boolean openReplay() {
+        Path replay = replayFile();
+        synchronized (this) {
+            try {
+                if (!Files.exists(replay)) {
+                    spillPending = false;
+                    closeSpillOut();
+                    if (!Files.exists(spillFile)) return false;
+                    Files.move(spillFile, replay, StandardCopyOption.ATOMIC_MOVE);
+                    Files.deleteIfExists(offsetFile());
+                }
+            } catch (IOException ex) {
+                System.err.println("[CommandLogWriter] Cannot rotate spill file: " + ex.getMessage());
+                replayRetryAt = System.currentTimeMillis() + REPLAY_RETRY_MS;
+                return false;
+            }
+        }
+        try {
+            long offset = readReplayOffset();
+            InputStream in = new BufferedInputStream(Files.newInputStream(replay));
+            in.skipNBytes(offset);
+            // Counted above the buffer, so the count is what the records consumed, not what was read ahead
+            replayCount = new CountingInputStream(in, offset);
+            replayIn = new DataInputStream(replayCount);
+            return true;
+        } catch (IOException ex) {
+            System.err.println("[CommandLogWriter] Cannot open spill replay: " + ex.getMessage());
+            closeReplay();
+            replayRetryAt = System.currentTimeMillis() + REPLAY_RETRY_MS;
+            return false;
+        }
+    }
+
+    private void closeReplay() {
+        if (replayIn == null) return;
+        try {
+            replayIn.close();
+        } catch (IOException ignore) {
+        }
+        replayIn = null;
+        replayCount = null;
+    }
+
+    private long readReplayOffset() {
+        try {
+            if (!Files.exists(offsetFile())) return 0;
+            byte[] b = Files.readAllBytes(offsetFile());
+            return b.length == Long.BYTES ? ByteBuffer.wrap(b).getLong() : 0;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    // Written to a temp file and moved into place, so the offset file is never half-written
+    private void saveReplayOffset(long offset) {
+        Path tmp = offsetFile().resolveSibling(offsetFile().getFileName() + ".tmp");
+        try {
+            Files.write(tmp, ByteBuffer.allocate(Long.BYTES).putLong(offset).array());
+            Files.move(tmp, offsetFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            System.err.println("[CommandLogWriter] Cannot record replay offset: " + ex.getMessage());
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in, long start) {
+            super(in);
+            this.count = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
@@ -2,19 +2,184 @@ package com.ev07b.services;
 
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import com.ev07b.commands.DeviceConnectionManager;
+import com.ev07b.commands.InFlightTracker;
+import com.ev07b.net.ChannelSession;
+import com.ev07b.net.FrameWriter;
 import com.ev07b.repos.PendingCommandRepository;
 import com.ev07b.entities.PendingCommandEntity;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * CommandService
+ *
+ * Pending (store-and-forward) commands. Keeps an in-memory count of queued rows per device so the
+ * per-frame delivery check only hits the database when something is actually pending. The counts
+ * are seeded from the table at startup and maintained by queuePending/deliverPending. For an
+ * identified connection the same information is mirrored in its ChannelSession's pending flag, so
+ * the per-frame check doesn't even need the map.
+ *
+ * Counts are raised before the insert (and lowered again if it fails), so a committed row is never
+ * invisible to the delivery check. A count the table no longer backs is dropped when the delivery
+ * query comes back empty.
+ */
 @Service
 public class CommandService {
 
     @Autowired
     private PendingCommandRepository pendingRepo;
 
+    @Autowired
+    private DeviceConnectionManager connMgr;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private InFlightTracker inFlight;
+
+    private static final String INSERT_SQL = "INSERT INTO pending_command (device_id, payload, created_at) VALUES (?, ?, ?)";
+
+    private final Map<String, Integer> pendingCounts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void loadPendingIndex() {
+        for (Object[] row : pendingRepo.countPerDevice()) {
+            pendingCounts.put((String) row[0], ((Number) row[1]).intValue());
+        }
+        System.out.println("[CommandService] Devices with pending commands: " + pendingCounts.size());
+    }
+
     public PendingCommandEntity queuePending(String deviceId, byte[] payload) {
         PendingCommandEntity p = new PendingCommandEntity(deviceId, payload);
-        return pendingRepo.save(p);
+        pendingCounts.merge(deviceId, 1, Integer::sum);
+        PendingCommandEntity saved;
+        try {
+            saved = pendingRepo.save(p);
+        } catch (RuntimeException ex) {
+            uncount(deviceId, 1);
+            throw ex;
+        }
+        ChannelSession session = ChannelSession.get(connMgr.getChannel(deviceId));
+        if (session != null) session.markPending();
+        return saved;
+    }
+
+    /**
+     * Queue one frame per device ({@code deviceIds[i]} gets {@code frames[i]}) with a single JDBC batch
+     * insert instead of a save per row; used for broadcasts to offline devices.
+     */
+    public int queuePending(List<String> deviceIds, List<byte[]> frames) {
+        if (!insertBatch(deviceIds, frames)) return 0;
+        for (String deviceId : deviceIds) {
+            ChannelSession session = ChannelSession.get(connMgr.getChannel(deviceId));
+            if (session != null) session.markPending();
+        }
+        return deviceIds.size();
+    }
+
+    /**
+     * Like {@link #queuePending(List, List)}, but without flagging the device's current connection:
+     * for commands that connection failed to acknowledge, which are retried on the next connection
+     * instead of being re-sent with the device's next frame.
+     */
+    public int queueForReconnect(List<String> deviceIds, List<byte[]> frames) {
+        return insertBatch(deviceIds, frames) ? deviceIds.size() : 0;
+    }
+
+    // Counts the rows first, so they are visible to deliverPending as soon as the insert commits
+    private boolean insertBatch(List<String> deviceIds, List<byte[]> frames) {
+        if (deviceIds.isEmpty()) return false;
+        for (String deviceId : deviceIds) {
+            pendingCounts.merge(deviceId, 1, Integer::sum);
+        }
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        try {
+            jdbc.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setString(1, deviceIds.get(i));
+                    ps.setBytes(2, frames.get(i));
+                    ps.setTimestamp(3, now, utc);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return deviceIds.size();
+                }
+            });
+        } catch (RuntimeException ex) {
+            for (String deviceId : deviceIds) {
+                uncount(deviceId, 1);
+            }
+            throw ex;
+        }
+        return true;
+    }
+
+    private void uncount(String deviceId, int n) {
+        pendingCounts.computeIfPresent(deviceId, (k, c) -> c > n ? c - n : null);
+    }
+
+    public boolean hasPending(String deviceId) {
+        return pendingCounts.containsKey(deviceId);
+    }
+
+    /**
+     * Write every pending frame for the device with a single flush and remove the delivered rows
+     * with one batched delete. Frames that request an ACK go through the InFlightTracker, which
+     * stores them again if the device doesn't acknowledge them. Returns the number of frames written.
+     */
+    public int deliverPending(String deviceId, Channel ch) {
+        if (ch == null || !ch.isActive()) return 0;
+        ChannelSession session = ChannelSession.get(ch);
+        if (session != null && session.isIdentified()) {
+            if (!session.hasPending()) return 0;
+            session.clearPending();
+        }
+        Integer counted = pendingCounts.get(deviceId);
+        if (counted == null) return 0;
+
+        List<PendingCommandEntity> pending = pendingRepo.findByDeviceId(deviceId);
+        if (pending.isEmpty()) {
+            // Nothing in the table: drop the count unless a row was queued in the meantime
+            pendingCounts.remove(deviceId, counted);
+            if (session != null && hasPending(deviceId)) session.markPending();
+            return 0;
+        }
+        List<Long> delivered = new ArrayList<>(pending.size());
+        for (PendingCommandEntity p : pending) {
+            byte[] payload = p.getPayload();
+            if (payload != null && payload.length >= FrameWriter.HEADER_LENGTH) {
+                inFlight.send(ch, FrameWriter.sequenceOf(payload), payload, false);
+            } else if (payload != null && payload.length > 0) {
+                ch.write(Unpooled.wrappedBuffer(payload));
+            }
+            delivered.add(p.getId());
+        }
+        if (!delivered.isEmpty()) {
+            ch.flush();
+            pendingRepo.deleteAllByIdInBatch(delivered);
+        }
+        // Rows queued concurrently keep the count above zero and go out with the next frame
+        uncount(deviceId, delivered.size());
+        if (session != null && hasPending(deviceId)) session.markPending();
+        return delivered.size();
     }
 
     public List<PendingCommandEntity> listPendingFor(String deviceId) {
@@ -23,5 +188,6 @@ public class CommandService {
 
     public void delete(PendingCommandEntity p) {
         pendingRepo.delete(p);
+        uncount(p.getDeviceId(), 1);
     }
 }
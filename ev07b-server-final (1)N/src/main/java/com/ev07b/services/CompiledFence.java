@@ -0,0 +1,190 @@
+package com.ev07b.services;
+
+import com.ev07b.entities.GeofenceEntity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * CompiledFence
+ *
+ * A geofence decoded once from its stored payload, with the trig terms of its center precomputed
+ * so that per-fix evaluation does no parsing and no Math.toRadians/cos on constants. Polygon fences
+ * carry a {@link CompiledPolygon}; their center is the middle of the vertex bounding box.
+ */
+public final class CompiledFence {
+
+    private static final byte CMD_GEOFENCE = (byte) 0x51;
+    private static final double EARTH_RADIUS_M = 6371000.0;
+
+    public final long id;
+    public final int index;
+    public final int points;
+    public final boolean enable;
+    public final int direction;   // 0=out, 1=in
+    public final int type;        // 0=circle, 1=polygon
+    public final int radius;      // meters
+    public final double centerLat;
+    public final double centerLon;
+    public final double centerLatRad;
+    public final double cosCenterLat;
+    public final CompiledPolygon polygon; // null for circles (and for polygons with < 3 vertices)
+    // Degree-space bounding box; conservative (slightly larger than the fence)
+    public final double minLat, maxLat, minLon, maxLon;
+
+    // Tiered circle test: squared equirectangular distance (in radians^2) below innerSq is inside,
+    // above outerSq is outside, and only the band in between runs the exact haversine
+    private final double innerSq, outerSq;
+    private final boolean exactOnly;
+
+    private CompiledFence(long id, int flags, double centerLat, double centerLon, CompiledPolygon polygon) {
+        this.id = id;
+        this.index = flags & 0x0F;
+        this.points = (flags >>> 4) & 0x0F;
+        this.enable = ((flags >>> 8) & 0x01) == 1;
+        this.direction = (flags >>> 9) & 0x01;
+        this.type = (flags >>> 10) & 0x01;
+        this.radius = (flags >>> 16) & 0xFFFF;
+        this.centerLat = centerLat;
+        this.centerLon = centerLon;
+        this.centerLatRad = Math.toRadians(centerLat);
+        this.cosCenterLat = Math.cos(centerLatRad);
+        this.polygon = polygon;
+
+        if (polygon != null) {
+            this.minLat = polygon.minLat / 1e7 - 1e-7;
+            this.maxLat = polygon.maxLat / 1e7 + 1e-7;
+            this.minLon = polygon.minLon / 1e7 - 1e-7;
+            this.maxLon = polygon.maxLon / 1e7 + 1e-7;
+            this.innerSq = this.outerSq = 0;
+            this.exactOnly = true;
+            return;
+        }
+        double r = Math.max(radius, 0);
+        double dLat = Math.toDegrees(r / EARTH_RADIUS_M) * 1.001 + 1e-6;
+        this.minLat = centerLat - dLat;
+        this.maxLat = centerLat + dLat;
+        if (maxLat >= 90 || minLat <= -90 || cosCenterLat < 1e-6) {
+            // Box touches a pole: every longitude qualifies
+            this.minLon = -180;
+            this.maxLon = 180;
+        } else {
+            // Widen by the smallest cos over the box's latitude span so the box stays conservative
+            double cosMin = Math.min(Math.cos(Math.toRadians(minLat)), Math.cos(Math.toRadians(maxLat)));
+            double dLon = dLat / cosMin;
+            if (centerLon - dLon < -180 || centerLon + dLon > 180) {
+                // Crosses the antimeridian; don't bother splitting the box
+                this.minLon = -180;
+                this.maxLon = 180;
+            } else {
+                this.minLon = centerLon - dLon;
+                this.maxLon = centerLon + dLon;
+            }
+        }
+
+        // Inside the box the equirectangular estimate (using cos of the center latitude) is off by
+        // roughly r * tan(lat) * r / R plus a tiny curvature term; bound that generously. Boxes that
+        // span all longitudes (poles, antimeridian) can wrap dLon, so they always go exact.
+        this.exactOnly = minLon == -180 && maxLon == 180;
+        if (exactOnly) {
+            this.innerSq = this.outerSq = 0;
+        } else {
+            double band = 2 * r * r / (EARTH_RADIUS_M * cosCenterLat) + r * 1e-4 + 0.5;
+            double inner = Math.max(r - band, 0) / EARTH_RADIUS_M;
+            double outer = (r + band) / EARTH_RADIUS_M;
+            this.innerSq = inner * inner;
+            this.outerSq = outer * outer;
+        }
+    }
+
+    public boolean boxContains(double lat, double lon) {
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    /**
+     * Circle containment, same decision as {@code distanceMeters(lat, lon) <= radius}: bounding-box
+     * reject, then an equirectangular estimate, then haversine only near the boundary.
+     */
+    public boolean circleContains(double lat, double lon) {
+        if (!boxContains(lat, lon)) return false;
+        if (!exactOnly) {
+            double dLat = Math.toRadians(lat - centerLat);
+            double dLon = Math.toRadians(lon - centerLon) * cosCenterLat;
+            double d2 = dLat * dLat + dLon * dLon;
+            if (d2 < innerSq) return true;
+            if (d2 > outerSq) return false;
+        }
+        return distanceMeters(lat, lon) <= (radius <= 0 ? 0.0 : radius);
+    }
+
+    /** Haversine distance in meters from (lat, lon) to the center. */
+    public double distanceMeters(double lat, double lon) {
+        double dLat = Math.toRadians(centerLat - lat);
+        double dLon = Math.toRadians(centerLon - lon);
+        double a = Math.sin(dLat/2)*Math.sin(dLat/2) + Math.cos(Math.toRadians(lat))*cosCenterLat*Math.sin(dLon/2)*Math.sin(dLon/2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+        return EARTH_RADIUS_M * c;
+    }
+
+    /** Equirectangular distance estimate in meters; cheap, for logging only. */
+    public double approxDistanceMeters(double lat, double lon) {
+        double dLat = Math.toRadians(lat - centerLat);
+        double dLonDeg = lon - centerLon;
+        if (dLonDeg > 180) dLonDeg -= 360;
+        else if (dLonDeg < -180) dLonDeg += 360;
+        double dLon = Math.toRadians(dLonDeg) * cosCenterLat;
+        return EARTH_RADIUS_M * Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+
+    public static CompiledFence compile(GeofenceEntity g) {
+        return compile(g.getId() == null ? 0L : g.getId(), g.getPayload());
+    }
+
+    // Accept either full command payload [0x51][flags][lat][lon]... or key-value only [flags][lat][lon].
+    // Polygons (flags type bit set) follow the flags with [count]? and count x [latLE][lonLE] vertices.
+    public static CompiledFence compile(long id, byte[] payload) {
+        if (payload == null) return null;
+        ByteBuffer bb = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+        if (payload.length >= 1 && Byte.toUnsignedInt(payload[0]) == (CMD_GEOFENCE & 0xFF)) {
+            // skip command byte
+            if (payload.length < 1 + 4 + 8) return null;
+            bb.position(1);
+        } else {
+            if (payload.length < 4 + 8) return null;
+        }
+        int flags = bb.getInt();
+        if (((flags >>> 10) & 0x01) == 1) {
+            CompiledPolygon poly = parsePolygon(bb);
+            if (poly == null) {
+                return new CompiledFence(id, flags, 0, 0, null);
+            }
+            double cLat = ((long) poly.minLat + poly.maxLat) / 2e7;
+            double cLon = ((long) poly.minLon + poly.maxLon) / 2e7;
+            return new CompiledFence(id, flags, cLat, cLon, poly);
+        }
+        int lat_i = bb.getInt();
+        int lon_i = bb.getInt();
+        // align with controller storage (1e7)
+        return new CompiledFence(id, flags, lat_i / 1e7, lon_i / 1e7, null);
+    }
+
+    // Same point-count rules as GeoFenceProcessor.parseGeoPayload
+    private static CompiledPolygon parsePolygon(ByteBuffer bb) {
+        int rem = bb.remaining();
+        int n;
+        if (rem % 8 == 0) {
+            // No explicit count; infer from remaining
+            n = rem / 8;
+        } else {
+            n = Byte.toUnsignedInt(bb.get());
+            n = Math.min(n, bb.remaining() / 8);
+        }
+        int[] lat = new int[n];
+        int[] lon = new int[n];
+        for (int i = 0; i < n; i++) {
+            lat[i] = bb.getInt();
+            lon[i] = bb.getInt();
+        }
+        return CompiledPolygon.of(lat, lon);
+    }
+}
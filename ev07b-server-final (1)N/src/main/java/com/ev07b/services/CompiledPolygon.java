@@ -0,0 +1,98 @@
+package com.ev07b.services;
+
+/**
+ * CompiledPolygon
+ *
+ * Point-in-polygon engine for polygon geofences. Vertices are kept as 1e7-scaled ints (same scale
+ * as the GPS key); the edges are sliced into horizontal latitude bands at compile time so a query
+ * only runs the crossing test on the edges of the band containing the point. After a bounding-box
+ * reject, a check costs one division and a handful of multiplies with no allocation.
+ */
+public final class CompiledPolygon {
+
+    private static final int MAX_BANDS = 256;
+
+    private final int n;
+    private final int[] lat;
+    private final int[] lon;
+    public final int minLat, maxLat, minLon, maxLon;
+
+    // Bands of height bandHeight starting at minLat; band b holds edges
+    // bandEdges[bandStart[b] .. bandStart[b + 1]) (CSR layout)
+    private final long bandHeight;
+    private final int bandCount;
+    private final int[] bandStart;
+    private final int[] bandEdges;
+
+    private CompiledPolygon(int[] lat, int[] lon) {
+        this.n = lat.length;
+        this.lat = lat;
+        this.lon = lon;
+        int aMin = Integer.MAX_VALUE, aMax = Integer.MIN_VALUE, oMin = Integer.MAX_VALUE, oMax = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            aMin = Math.min(aMin, lat[i]);
+            aMax = Math.max(aMax, lat[i]);
+            oMin = Math.min(oMin, lon[i]);
+            oMax = Math.max(oMax, lon[i]);
+        }
+        this.minLat = aMin;
+        this.maxLat = aMax;
+        this.minLon = oMin;
+        this.maxLon = oMax;
+
+        this.bandCount = Math.max(1, Math.min(n, MAX_BANDS));
+        this.bandHeight = ((long) maxLat - minLat) / bandCount + 1;
+
+        // Edge i runs from vertex i to vertex i+1 (wrapping); it can only cross latitudes in [lo, hi)
+        int[] counts = new int[bandCount + 1];
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            if (lat[i] == lat[j]) continue; // horizontal edges never cross a horizontal ray
+            int b0 = band(Math.min(lat[i], lat[j])), b1 = band(Math.max(lat[i], lat[j]));
+            for (int b = b0; b <= b1; b++) counts[b + 1]++;
+        }
+        this.bandStart = new int[bandCount + 1];
+        for (int b = 0; b < bandCount; b++) bandStart[b + 1] = bandStart[b] + counts[b + 1];
+        this.bandEdges = new int[bandStart[bandCount]];
+        int[] fill = new int[bandCount];
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            if (lat[i] == lat[j]) continue;
+            int b0 = band(Math.min(lat[i], lat[j])), b1 = band(Math.max(lat[i], lat[j]));
+            for (int b = b0; b <= b1; b++) bandEdges[bandStart[b] + fill[b]++] = i;
+        }
+    }
+
+    /** Vertices as parallel 1e7-scaled arrays; null when fewer than 3 vertices. */
+    public static CompiledPolygon of(int[] latE7, int[] lonE7) {
+        if (latE7 == null || lonE7 == null || latE7.length != lonE7.length || latE7.length < 3) return null;
+        return new CompiledPolygon(latE7.clone(), lonE7.clone());
+    }
+
+    public int vertexCount() { return n; }
+
+    public boolean contains(int y, int x) {
+        if (y < minLat || y > maxLat || x < minLon || x > maxLon) return false;
+        int b = band(y);
+        boolean inside = false;
+        for (int k = bandStart[b], end = bandStart[b + 1]; k < end; k++) {
+            int i = bandEdges[k];
+            int j = i + 1 == n ? 0 : i + 1;
+            int yi = lat[i], yj = lat[j];
+            if ((yi > y) != (yj > y)) {
+                // Does a ray from (y, x) towards +lon cross the edge? Compare x with the edge's lon at y,
+                // cross-multiplied to avoid the division: x < xi + (y - yi) * (xj - xi) / (yj - yi)
+                long dy = (long) yj - yi;
+                double lhs = (double) ((long) x - lon[i]) * dy;
+                double rhs = (double) ((long) y - yi) * ((long) lon[j] - lon[i]);
+                if (dy > 0 ? lhs < rhs : lhs > rhs) inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private int band(int y) {
+        int b = (int) (((long) y - minLat) / bandHeight);
+        return b < 0 ? 0 : (b >= bandCount ? bandCount - 1 : b);
+    }
+}
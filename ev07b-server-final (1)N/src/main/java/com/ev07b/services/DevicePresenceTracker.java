@@ -0,0 +1,210 @@
+package com.ev07b.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * DevicePresenceTracker
+ *
+ * In-memory last-seen/connected table for devices. Touches only update memory; dirty entries are
+ * written to the device table in periodic JDBC batch upserts. A touch only dirties an entry when the
+ * persisted row is more than maxStaleness behind or the connected flag changed, so a chatty device
+ * costs at most one row write per staleness window. Disconnects are written as plain UPDATEs; only a
+ * device seen connected gets a row inserted.
+ */
+@Component
+public class DevicePresenceTracker {
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO device (id, last_seen, connected) VALUES (?, ?, ?) " +
+            "ON CONFLICT (id) DO UPDATE SET last_seen = COALESCE(EXCLUDED.last_seen, device.last_seen), " +
+            "connected = EXCLUDED.connected";
+
+    // Disconnects only update existing rows, so a stray disconnect for an unknown id creates nothing
+    private static final String DISCONNECT_SQL =
+            "UPDATE device SET connected = false, last_seen = COALESCE(?, last_seen) WHERE id = ?";
+
+    private final JdbcTemplate jdbc;
+    private final long flushIntervalMs;
+    private final long maxStalenessMs;
+
+    private final Map<String, Presence> table = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+
+    static final class Presence {
+        volatile long lastSeen;             // epoch millis, 0 = never seen by this node
+        volatile boolean connected;
+        volatile long persistedLastSeen = Long.MIN_VALUE;
+        volatile boolean persistedConnected;
+        final AtomicBoolean dirty = new AtomicBoolean();
+    }
+
+    @Autowired
+    public DevicePresenceTracker(JdbcTemplate jdbc,
+                                 @Value("${app.presence.flush-interval-ms:1000}") long flushIntervalMs,
+                                 @Value("${app.presence.max-staleness-ms:30000}") long maxStalenessMs) {
+        this.jdbc = jdbc;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxStalenessMs = maxStalenessMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "device-presence-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        // Final synchronous flush so no presence updates are lost on shutdown
+        flush();
+    }
+
+    public void touch(String deviceId) {
+        long now = System.currentTimeMillis();
+        Presence p;
+        do {
+            p = table.computeIfAbsent(deviceId, k -> new Presence());
+            p.lastSeen = now;
+            p.connected = true;
+            if (!p.persistedConnected || now - p.persistedLastSeen >= maxStalenessMs) {
+                p.dirty.set(true);
+            }
+            // Retry if a concurrent flush evicted this entry while we were updating it
+        } while (table.get(deviceId) != p);
+    }
+
+    public void markDisconnected(String deviceId) {
+        Presence p;
+        do {
+            p = table.computeIfAbsent(deviceId, k -> new Presence());
+            p.connected = false;
+            p.dirty.set(true);
+        } while (table.get(deviceId) != p);
+    }
+
+    public void markDisconnected(Collection<String> deviceIds) {
+        for (String id : deviceIds) {
+            markDisconnected(id);
+        }
+    }
+
+    /** Writes all dirty entries (one batch of upserts, one of disconnect updates). Returns the number of rows written. */
+    public synchronized int flush() {
+        List<Row> rows = new ArrayList<>();
+        List<Row> disconnects = new ArrayList<>();
+        for (Map.Entry<String, Presence> e : table.entrySet()) {
+            Presence p = e.getValue();
+            if (p.dirty.compareAndSet(true, false)) {
+                Row r = new Row(e.getKey(), p, p.lastSeen, p.connected);
+                (r.connected ? rows : disconnects).add(r);
+            } else if (!p.connected && !p.persistedConnected && p.persistedLastSeen != Long.MIN_VALUE) {
+                // Disconnected and already persisted; drop it so the table tracks live devices only
+                table.remove(e.getKey(), p);
+            }
+        }
+        if (rows.isEmpty() && disconnects.isEmpty()) return 0;
+
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        try {
+            if (!rows.isEmpty()) jdbc.batchUpdate(UPSERT_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    Row r = rows.get(i);
+                    ps.setString(1, r.deviceId);
+                    if (r.lastSeen > 0) {
+                        ps.setTimestamp(2, Timestamp.from(Instant.ofEpochMilli(r.lastSeen)), utc);
+                    } else {
+                        ps.setNull(2, Types.TIMESTAMP);
+                    }
+                    ps.setBoolean(3, r.connected);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return rows.size();
+                }
+            });
+            if (!disconnects.isEmpty()) jdbc.batchUpdate(DISCONNECT_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    Row r = disconnects.get(i);
+                    if (r.lastSeen > 0) {
+                        ps.setTimestamp(1, Timestamp.from(Instant.ofEpochMilli(r.lastSeen)), utc);
+                    } else {
+                        ps.setNull(1, Types.TIMESTAMP);
+                    }
+                    ps.setString(2, r.deviceId);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return disconnects.size();
+                }
+            });
+        } catch (RuntimeException ex) {
+            // Keep the entries dirty so the next cycle retries them
+            rows.forEach(r -> r.presence.dirty.set(true));
+            disconnects.forEach(r -> r.presence.dirty.set(true));
+            throw ex;
+        }
+        rows.addAll(disconnects);
+        for (Row r : rows) {
+            r.presence.persistedLastSeen = r.lastSeen;
+            r.presence.persistedConnected = r.connected;
+        }
+        return rows.size();
+    }
+
+    private static final class Row {
+        final String deviceId;
+        final Presence presence;
+        final long lastSeen;
+        final boolean connected;
+
+        Row(String deviceId, Presence presence, long lastSeen, boolean connected) {
+            this.deviceId = deviceId;
+            this.presence = presence;
+            this.lastSeen = lastSeen;
+            this.connected = connected;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception ex) {
+            System.err.println("[DevicePresence] Flush failed: " + ex.getMessage());
+        }
+    }
+}
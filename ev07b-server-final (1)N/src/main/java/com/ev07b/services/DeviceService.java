@@ -2,37 +2,31 @@ package com.ev07b.services;
 
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
-import com.ev07b.repos.DeviceRepository;
-import com.ev07b.entities.DeviceEntity;
-import java.time.Instant;
-import java.util.Optional;
 
+import java.util.Collection;
+
+/**
+ * DeviceService
+ *
+ * Device presence goes through the write-behind DevicePresenceTracker; touches are coalesced in
+ * memory and flushed to the device table in batches.
+ */
 @Service
 public class DeviceService {
 
     @Autowired
-    private DeviceRepository deviceRepo;
+    private DevicePresenceTracker presence;
 
-    public DeviceEntity touch(String deviceId) {
-        Optional<DeviceEntity> opt = deviceRepo.findById(deviceId);
-        DeviceEntity d;
-        if (opt.isPresent()) {
-            d = opt.get();
-            d.setLastSeen(Instant.now());
-            d.setConnected(true);
-        } else {
-            d = new DeviceEntity(deviceId);
-            d.setLastSeen(Instant.now());
-            d.setConnected(true);
-        }
-        deviceRepo.save(d);
-        return d;
+    public void touch(String deviceId) {
+        presence.touch(deviceId);
     }
 
     public void markDisconnected(String deviceId) {
-        deviceRepo.findById(deviceId).ifPresent(d -> {
-            d.setConnected(false);
-            deviceRepo.save(d);
-        });
+        presence.markDisconnected(deviceId);
+    }
+
+    /** Mark several devices disconnected at once; they go out in the tracker's next batch. */
+    public void markDisconnected(Collection<String> deviceIds) {
+        presence.markDisconnected(deviceIds);
     }
 }
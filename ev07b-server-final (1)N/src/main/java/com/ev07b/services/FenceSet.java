@@ -0,0 +1,140 @@
+package com.ev07b.services;
+
+import io.netty.util.collection.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * FenceSet
+ *
+ * Immutable set of compiled fences for one device, plus a uniform grid over their bounding boxes
+ * once the set is large enough to be worth it. {@link #candidates(double, double)} returns the
+ * fences whose box overlaps the grid cell of a point; every other fence is known to be outside.
+ * Small sets skip the grid and return all fences.
+ */
+public final class FenceSet {
+
+    public static final FenceSet EMPTY = new FenceSet(new CompiledFence[0], 0, 0);
+
+    // A fence spanning more cells than this is checked on every query instead of being gridded
+    private static final int MAX_CELLS_PER_FENCE = 4096;
+    private static final int[] NONE = new int[0];
+
+    private final CompiledFence[] fences;
+    private final long[] sortedIds;
+    private final int[] sortedIdx;
+    private final int[] all;
+
+    // Grid (null when the set is searched linearly)
+    private final double cellDeg;
+    private final LongObjectHashMap<int[]> cells;
+    private final int[] everywhere;
+
+    private FenceSet(CompiledFence[] fences, double cellDeg, int minFencesForGrid) {
+        this.fences = fences;
+        int n = fences.length;
+
+        this.all = new int[n];
+        for (int i = 0; i < n; i++) all[i] = i;
+
+        // id -> position lookup for state tracking
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(fences[a].id, fences[b].id));
+        this.sortedIds = new long[n];
+        this.sortedIdx = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedIds[i] = fences[order[i]].id;
+            sortedIdx[i] = order[i];
+        }
+
+        if (n >= minFencesForGrid && cellDeg > 0 && minFencesForGrid > 0) {
+            this.cellDeg = cellDeg;
+            LongObjectHashMap<List<Integer>> build = new LongObjectHashMap<>();
+            List<Integer> wide = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                CompiledFence f = fences[i];
+                int r0 = cell(f.minLat), r1 = cell(f.maxLat);
+                int c0 = cell(f.minLon), c1 = cell(f.maxLon);
+                if ((long) (r1 - r0 + 1) * (c1 - c0 + 1) > MAX_CELLS_PER_FENCE) {
+                    wide.add(i);
+                    continue;
+                }
+                for (int r = r0; r <= r1; r++) {
+                    for (int c = c0; c <= c1; c++) {
+                        long key = key(r, c);
+                        List<Integer> l = build.get(key);
+                        if (l == null) {
+                            l = new ArrayList<>(4);
+                            build.put(key, l);
+                        }
+                        l.add(i);
+                    }
+                }
+            }
+            this.everywhere = toArray(wide);
+            this.cells = new LongObjectHashMap<>(build.size());
+            for (LongObjectHashMap.PrimitiveEntry<List<Integer>> e : build.entries()) {
+                List<Integer> l = e.value();
+                // Each cell also carries the wide fences so a query is a single array lookup
+                int[] arr = new int[l.size() + everywhere.length];
+                for (int k = 0; k < l.size(); k++) arr[k] = l.get(k);
+                System.arraycopy(everywhere, 0, arr, l.size(), everywhere.length);
+                cells.put(e.key(), arr);
+            }
+        } else {
+            this.cellDeg = 0;
+            this.cells = null;
+            this.everywhere = null;
+        }
+    }
+
+    public static FenceSet of(List<CompiledFence> fences, double cellDeg, int minFencesForGrid) {
+        if (fences == null || fences.isEmpty()) return EMPTY;
+        return new FenceSet(fences.toArray(new CompiledFence[0]), cellDeg, minFencesForGrid);
+    }
+
+    public boolean isEmpty() { return fences.length == 0; }
+
+    public int size() { return fences.length; }
+
+    public boolean isIndexed() { return cells != null; }
+
+    public CompiledFence get(int i) { return fences[i]; }
+
+    /** Position of the fence with this id, or -1. */
+    public int indexOf(long id) {
+        int k = Arrays.binarySearch(sortedIds, id);
+        return k < 0 ? -1 : sortedIdx[k];
+    }
+
+    /**
+     * Positions of the fences that may contain (lat, lon). The returned array is shared and must
+     * not be modified. Fences not listed are guaranteed to be outside.
+     */
+    public int[] candidates(double lat, double lon) {
+        if (cells == null) return all;
+        int[] hit = cells.get(key(cell(lat), cell(lon)));
+        if (hit != null) return hit;
+        return everywhere.length == 0 ? NONE : everywhere;
+    }
+
+    private int cell(double deg) {
+        return (int) Math.floor(deg / cellDeg);
+    }
+
+    // LongObjectHashMap hashes a key as (hi ^ lo); row/col pairs collide badly under that, so spread the
+    // bits with a bijective mix (odd multiply + xor-shift) to keep probe chains short
+    private static long key(int row, int col) {
+        long k = (((long) row << 32) | (col & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        return k ^ (k >>> 32);
+    }
+
+    private static int[] toArray(List<Integer> l) {
+        int[] a = new int[l.size()];
+        for (int i = 0; i < a.length; i++) a[i] = l.get(i);
+        return a;
+    }
+}
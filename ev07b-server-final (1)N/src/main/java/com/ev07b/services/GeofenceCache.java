@@ -0,0 +1,143 @@
+package com.ev07b.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.ev07b.entities.GeofenceEntity;
+import com.ev07b.repos.GeofenceRepository;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * GeofenceCache
+ *
+ * Per-device cache of compiled fences (as a spatially indexed FenceSet), bounded by evicting the least
+ * recently used devices. A miss loads and compiles the device's fences once; devices without fences
+ * are cached too, so steady-state heartbeats need no database access. Writers must call
+ * {@link #invalidate(String)} after changing a device's fences.
+ *
+ * A hit is a ConcurrentHashMap read plus a timestamp write on the device's own entry; there is no
+ * shared lock. Each entry carries a per-device version that invalidate() bumps (leaving a placeholder
+ * without fences), and a load only installs its result if the version it started from is still
+ * current, so a load racing with a write never caches stale fences. When the map grows past
+ * app.geofence.cache.max-devices the least recently used tenth is evicted in one sweep.
+ */
+@Component
+public class GeofenceCache {
+
+    private final GeofenceRepository geofenceRepo;
+    private final int maxDevices;
+    private final boolean warmOnStartup;
+    private final double cellDeg;
+    private final int minFencesForGrid;
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /** Compiled fences (null for an invalidated placeholder) and the device's version. */
+    private static final class Entry {
+        final FenceSet fences;
+        final long version;
+        volatile long lastUsed = System.nanoTime();
+
+        Entry(FenceSet fences, long version) {
+            this.fences = fences;
+            this.version = version;
+        }
+    }
+
+    @Autowired
+    public GeofenceCache(GeofenceRepository geofenceRepo,
+                         @Value("${app.geofence.cache.max-devices:100000}") int maxDevices,
+                         @Value("${app.geofence.cache.warm-on-startup:false}") boolean warmOnStartup,
+                         @Value("${app.geofence.index.cell-deg:0.01}") double cellDeg,
+                         @Value("${app.geofence.index.min-fences:32}") int minFencesForGrid) {
+        this.geofenceRepo = geofenceRepo;
+        this.maxDevices = Math.max(1, maxDevices);
+        this.warmOnStartup = warmOnStartup;
+        this.cellDeg = cellDeg;
+        this.minFencesForGrid = minFencesForGrid;
+    }
+
+    @PostConstruct
+    public void warm() {
+        if (!warmOnStartup) return;
+        Map<String, List<GeofenceEntity>> byDevice = new HashMap<>();
+        for (GeofenceEntity g : geofenceRepo.findAll()) {
+            if (g.getDeviceId() != null) {
+                byDevice.computeIfAbsent(g.getDeviceId(), k -> new ArrayList<>()).add(g);
+            }
+        }
+        for (Map.Entry<String, List<GeofenceEntity>> e : byDevice.entrySet()) {
+            if (cache.size() >= maxDevices) break;
+            cache.putIfAbsent(e.getKey(), new Entry(compileAll(e.getValue()), 0));
+        }
+        System.out.println("[GeofenceCache] Warmed fences for " + Math.min(byDevice.size(), maxDevices) + " devices");
+    }
+
+    /** Compiled fences for the device, loading them on a miss. Never null. */
+    public FenceSet get(String deviceId) {
+        Entry e = cache.get(deviceId);
+        if (e != null && e.fences != null) {
+            e.lastUsed = System.nanoTime();
+            return e.fences;
+        }
+        long version = e == null ? 0 : e.version;
+        FenceSet loaded = compileAll(geofenceRepo.findByDeviceId(deviceId));
+        // Install only if no invalidation happened since the load started and nobody beat us to it
+        Entry installed = cache.compute(deviceId, (k, cur) -> {
+            long curVersion = cur == null ? 0 : cur.version;
+            if (curVersion != version || (cur != null && cur.fences != null)) return cur;
+            return new Entry(loaded, version);
+        });
+        if (installed != null && installed.fences == loaded && cache.size() > maxDevices) evict();
+        return loaded;
+    }
+
+    public void invalidate(String deviceId) {
+        cache.compute(deviceId, (k, cur) -> new Entry(null, cur == null ? 1 : cur.version + 1));
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    // Drop the least recently used tenth; one sweeper at a time, others just carry on
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) return;
+        try {
+            int excess = cache.size() - maxDevices;
+            if (excess <= 0) return;
+            int target = Math.max(excess, maxDevices / 10);
+            long[] stamps = new long[cache.size()];
+            int n = 0;
+            for (Entry e : cache.values()) {
+                if (n == stamps.length) break;
+                stamps[n++] = e.lastUsed;
+            }
+            Arrays.sort(stamps, 0, n);
+            long cutoff = stamps[Math.min(target, n) - 1];
+            cache.values().removeIf(e -> e.lastUsed - cutoff <= 0);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private FenceSet compileAll(List<GeofenceEntity> fences) {
+        if (fences == null || fences.isEmpty()) return FenceSet.EMPTY;
+        List<CompiledFence> out = new ArrayList<>(fences.size());
+        for (GeofenceEntity g : fences) {
+            CompiledFence f = CompiledFence.compile(g);
+            if (f != null) out.add(f);
+        }
+        return FenceSet.of(out, cellDeg, minFencesForGrid);
+    }
+}
@@ -1,10 +1,17 @@
 package com.ev07b.util;
 
+import io.netty.buffer.ByteBuf;
+
 public class CRC16 {
     private final int poly;
     private final int init;
     private final int xorOut;
 
+    // Slice-by-8 lookup tables for CRC-CCITT (poly 0x1021, MSB-first).
+    // CCITT[0] is the classic byte table; CCITT[k][b] is the CRC of byte b followed by k zero bytes,
+    // which lets the hot loop fold 8 input bytes per iteration with independent table lookups.
+    private static final char[][] CCITT = buildTables(0x1021, 8);
+
     public CRC16() {
         // Default: CRC-CCITT (XModem) polynomial 0x1021, init 0x0000
         this.poly = 0x1021;
@@ -19,6 +26,9 @@ public class CRC16 {
     }
 
     public int compute(byte[] data) {
+        if ((poly & 0xffff) == 0x1021) {
+            return (update(init & 0xffff, data, 0, data.length) ^ xorOut) & 0xffff;
+        }
         int crc = init & 0xffff;
         for (byte b : data) {
             crc ^= (b & 0xff) << 8;
@@ -35,6 +45,83 @@ public class CRC16 {
 
     // convenience static method
     public static int crc16Ccitt(byte[] data) {
-        return new CRC16(0x1021, 0x0000, 0x0000).compute(data);
+        return crc16Ccitt(data, 0, data.length);
+    }
+
+    /** CRC-CCITT (XModem) over {@code data[offset, offset + length)}. */
+    public static int crc16Ccitt(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " length=" + length + " size=" + data.length);
+        }
+        return update(0x0000, data, offset, length);
+    }
+
+    /**
+     * CRC-CCITT (XModem) over {@code length} bytes of {@code buf} starting at absolute {@code index}.
+     * Does not modify the reader/writer indexes, so decoders can validate a frame in place.
+     */
+    public static int crc16Ccitt(ByteBuf buf, int index, int length) {
+        if (buf.hasArray()) {
+            return crc16Ccitt(buf.array(), buf.arrayOffset() + index, length);
+        }
+        int crc = 0x0000;
+        int i = index;
+        int end = index + length;
+        // getLong is big-endian, so the first byte on the wire ends up in the top bits
+        while (end - i >= 8) {
+            long v = buf.getLong(i);
+            crc = fold8(crc, (int) (v >>> 32), (int) v);
+            i += 8;
+        }
+        while (i < end) {
+            crc = (crc << 8) ^ CCITT[0][((crc >>> 8) ^ buf.getByte(i++)) & 0xff];
+        }
+        return crc & 0xffff;
+    }
+
+    private static int update(int crc, byte[] data, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        while (end - i >= 8) {
+            int hi = ((data[i] & 0xff) << 24) | ((data[i + 1] & 0xff) << 16) | ((data[i + 2] & 0xff) << 8) | (data[i + 3] & 0xff);
+            int lo = ((data[i + 4] & 0xff) << 24) | ((data[i + 5] & 0xff) << 16) | ((data[i + 6] & 0xff) << 8) | (data[i + 7] & 0xff);
+            crc = fold8(crc, hi, lo);
+            i += 8;
+        }
+        while (i < end) {
+            crc = (crc << 8) ^ CCITT[0][((crc >>> 8) ^ data[i++]) & 0xff];
+        }
+        return crc & 0xffff;
+    }
+
+    // Folds 8 bytes (hi = bytes 0..3, lo = bytes 4..7, big-endian packed) into the running CRC
+    private static int fold8(int crc, int hi, int lo) {
+        hi ^= (crc & 0xffff) << 16;
+        return CCITT[7][hi >>> 24]
+                ^ CCITT[6][(hi >>> 16) & 0xff]
+                ^ CCITT[5][(hi >>> 8) & 0xff]
+                ^ CCITT[4][hi & 0xff]
+                ^ CCITT[3][lo >>> 24]
+                ^ CCITT[2][(lo >>> 16) & 0xff]
+                ^ CCITT[1][(lo >>> 8) & 0xff]
+                ^ CCITT[0][lo & 0xff];
+    }
+
+    private static char[][] buildTables(int poly, int slices) {
+        char[][] t = new char[slices][256];
+        for (int b = 0; b < 256; b++) {
+            int crc = b << 8;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 0x8000) != 0 ? ((crc << 1) ^ poly) : (crc << 1);
+            }
+            t[0][b] = (char) (crc & 0xffff);
+        }
+        for (int s = 1; s < slices; s++) {
+            for (int b = 0; b < 256; b++) {
+                int prev = t[s - 1][b];
+                t[s][b] = (char) (((prev << 8) ^ t[0][prev >>> 8]) & 0xffff);
+            }
+        }
+        return t;
     }
 }
@@ -0,0 +1,268 @@
+package com.ev07b.util;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+/**
+ * ConcurrentLongMap
+ *
+ * Concurrent map from primitive long keys to objects, for per-device tables holding millions of
+ * entries: no boxed keys, no per-entry node objects. Keys are spread over a fixed number of stripes,
+ * each an open-addressing table (linear probing, backward-shift deletion) guarded by a StampedLock.
+ * Lookups use an optimistic read and only take the read lock when a writer got in the way; writers
+ * lock one stripe. Key 0 is reserved as the empty-slot marker (it is DeviceKeys.NONE): put and
+ * computeIfAbsent reject it, get and remove treat it as absent.
+ */
+public final class ConcurrentLongMap<V> {
+
+    /** Callback for {@link #forEach}. */
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final Stripe<V>[] stripes;
+    private final int stripeShift;
+
+    public ConcurrentLongMap() {
+        this(64, 16);
+    }
+
+    /** {@code stripes} is rounded up to a power of two. */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongMap(int stripes, int initialCapacityPerStripe) {
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        if (stripes <= 1) n = 1;
+        this.stripes = (Stripe<V>[]) new Stripe<?>[n];
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(n);
+        int cap = Integer.highestOneBit(Math.max(4, initialCapacityPerStripe) - 1) << 1;
+        for (int i = 0; i < n; i++) this.stripes[i] = new Stripe<>(cap);
+    }
+
+    public V get(long key) {
+        if (key == 0) return null;
+        long h = hash(key);
+        Stripe<V> s = stripeFor(h);
+        long stamp = s.tryOptimisticRead();
+        V v = s.table.find(key, h);
+        if (!s.validate(stamp)) {
+            stamp = s.readLock();
+            try {
+                v = s.table.find(key, h);
+            } finally {
+                s.unlockRead(stamp);
+            }
+        }
+        return v;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /** Returns the previous value, or null. */
+    public V put(long key, V value) {
+        checkKey(key);
+        if (value == null) throw new NullPointerException("value");
+        long h = hash(key);
+        Stripe<V> s = stripeFor(h);
+        long stamp = s.writeLock();
+        try {
+            return s.put(key, h, value);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    public V computeIfAbsent(long key, LongFunction<? extends V> factory) {
+        checkKey(key);
+        V v = get(key);
+        if (v != null) return v;
+        long h = hash(key);
+        Stripe<V> s = stripeFor(h);
+        long stamp = s.writeLock();
+        try {
+            v = s.table.find(key, h);
+            if (v == null) {
+                v = factory.apply(key);
+                if (v != null) s.put(key, h, v);
+            }
+            return v;
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /** Returns the removed value, or null. */
+    public V remove(long key) {
+        // Probing for 0 would stop at an empty slot and back-shift the chain behind it
+        if (key == 0) return null;
+        long h = hash(key);
+        Stripe<V> s = stripeFor(h);
+        long stamp = s.writeLock();
+        try {
+            return s.remove(key, h, null);
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /** Removes the entry only while it still maps to {@code expected} (identity). */
+    public boolean remove(long key, V expected) {
+        if (key == 0) return false;
+        long h = hash(key);
+        Stripe<V> s = stripeFor(h);
+        long stamp = s.writeLock();
+        try {
+            return s.remove(key, h, expected) != null;
+        } finally {
+            s.unlockWrite(stamp);
+        }
+    }
+
+    /** Sum of the stripe sizes; exact only when no writer is active. */
+    public int size() {
+        int n = 0;
+        for (Stripe<V> s : stripes) n += s.size;
+        return n;
+    }
+
+    /** Visits every entry, one stripe at a time under its read lock; don't write to the map from {@code action}. */
+    public void forEach(EntryConsumer<? super V> action) {
+        for (Stripe<V> s : stripes) {
+            long stamp = s.readLock();
+            try {
+                Table<V> t = s.table;
+                for (int i = 0; i < t.keys.length; i++) {
+                    if (t.keys[i] != 0) action.accept(t.keys[i], t.valueAt(i));
+                }
+            } finally {
+                s.unlockRead(stamp);
+            }
+        }
+    }
+
+    private Stripe<V> stripeFor(long h) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (h >>> stripeShift)];
+    }
+
+    private static void checkKey(long key) {
+        if (key == 0) throw new IllegalArgumentException("key 0 is reserved");
+    }
+
+    // Murmur3 finalizer: device keys are dense decimal numbers, spread them over slots and stripes
+    private static long hash(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /** Keys and values swapped together on resize, so an optimistic reader never mixes two tables. */
+    private static final class Table<V> {
+        final long[] keys;
+        final Object[] vals;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            vals = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        V valueAt(int i) {
+            return (V) vals[i];
+        }
+
+        // Bounded by the capacity so a torn optimistic read can't loop forever
+        V find(long key, long h) {
+            int i = (int) h & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long k = keys[i];
+                if (k == key) return valueAt(i);
+                if (k == 0) return null;
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+    }
+
+    // Serializable only through StampedLock; stripes are never serialized
+    private static final class Stripe<V> extends StampedLock {
+        private static final long serialVersionUID = 1L;
+
+        transient Table<V> table;
+        transient int size;
+
+        Stripe(int capacity) {
+            table = new Table<>(capacity);
+        }
+
+        V put(long key, long h, V value) {
+            Table<V> t = table;
+            int i = (int) h & t.mask;
+            while (t.keys[i] != 0) {
+                if (t.keys[i] == key) {
+                    V old = t.valueAt(i);
+                    t.vals[i] = value;
+                    return old;
+                }
+                i = (i + 1) & t.mask;
+            }
+            if (size + 1 > (t.mask + 1) * LOAD_FACTOR) {
+                resize();
+                return put(key, h, value);
+            }
+            t.vals[i] = value;
+            t.keys[i] = key;
+            size++;
+            return null;
+        }
+
+        V remove(long key, long h, V expected) {
+            Table<V> t = table;
+            int i = (int) h & t.mask;
+            while (t.keys[i] != key) {
+                if (t.keys[i] == 0) return null;
+                i = (i + 1) & t.mask;
+            }
+            V old = t.valueAt(i);
+            if (expected != null && old != expected) return null;
+            // Backward-shift: pull later entries of the probe chain into the hole
+            int hole = i;
+            int j = (i + 1) & t.mask;
+            while (t.keys[j] != 0) {
+                int home = (int) hash(t.keys[j]) & t.mask;
+                // Move j into the hole unless its home slot lies cyclically in (hole, j]
+                if (((j - home) & t.mask) >= ((j - hole) & t.mask)) {
+                    t.keys[hole] = t.keys[j];
+                    t.vals[hole] = t.vals[j];
+                    hole = j;
+                }
+                j = (j + 1) & t.mask;
+            }
+            t.keys[hole] = 0;
+            t.vals[hole] = null;
+            size--;
+            return old;
+        }
+
+        private void resize() {
+            Table<V> old = table;
+            Table<V> t = new Table<>((old.mask + 1) * 2);
+            for (int i = 0; i <= old.mask; i++) {
+                long k = old.keys[i];
+                if (k == 0) continue;
+                int j = (int) hash(k) & t.mask;
+                while (t.keys[j] != 0) j = (j + 1) & t.mask;
+                t.keys[j] = k;
+                t.vals[j] = old.vals[i];
+            }
+            table = t;
+        }
+    }
+}
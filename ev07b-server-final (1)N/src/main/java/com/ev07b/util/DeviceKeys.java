@@ -0,0 +1,132 @@
+package com.ev07b.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DeviceKeys
+ *
+ * 64-bit keys for device ids, so the per-device tables can be primitive-keyed and the decoder never
+ * has to build a String per frame. A numeric id of 1..18 digits (IMEIs are 15) maps to
+ * 10^digits + value: a leading sentinel 1 keeps "0123" and "123" apart, and the id is recovered by
+ * dropping that first digit. Anything else (non-numeric or longer ids, e.g. a 20-digit legacy run) is
+ * assigned a negative key from a small registry on first sight. {@link #NONE} (0) means "no id".
+ *
+ * The registry is capped at MAX_OTHER_IDS entries so malformed ids can't grow it without limit;
+ * beyond that, unseen non-numeric ids get NONE and are handled like frames without an id. Lookups
+ * that must not register an id (connection maps queried by REST callers) use {@link #peek}.
+ *
+ * Strings are only materialized with {@link #toId} where they leave the process: REST responses,
+ * JPA/JDBC rows and logs.
+ */
+public final class DeviceKeys {
+
+    public static final long NONE = 0L;
+
+    private static final int MAX_DIGITS = 18;
+    private static final long[] POW10 = new long[MAX_DIGITS + 1];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i <= MAX_DIGITS; i++) POW10[i] = POW10[i - 1] * 10;
+    }
+
+    // Ids that don't fit the numeric encoding; expected to stay tiny
+    private static final int MAX_OTHER_IDS = 65536;
+    private static final Map<String, Long> OTHER_KEYS = new ConcurrentHashMap<>();
+    private static final Map<Long, String> OTHER_IDS = new ConcurrentHashMap<>();
+    private static final AtomicLong NEXT_OTHER = new AtomicLong();
+    private static final AtomicBoolean FULL_LOGGED = new AtomicBoolean();
+
+    private DeviceKeys() {}
+
+    /**
+     * Key for {@code id}; NONE for null, empty or "UNKNOWN", and for an unseen non-numeric id once
+     * the registry is full.
+     */
+    public static long of(String id) {
+        long key = numeric(id);
+        if (key != NONE || id == null || id.isEmpty() || "UNKNOWN".equalsIgnoreCase(id)) return key;
+        Long other = OTHER_KEYS.get(id);
+        if (other != null) return other;
+        if (OTHER_KEYS.size() >= MAX_OTHER_IDS) {
+            if (FULL_LOGGED.compareAndSet(false, true)) {
+                System.err.println("[DeviceKeys] " + MAX_OTHER_IDS + " non-numeric device ids registered; further ones are treated as UNKNOWN");
+            }
+            return NONE;
+        }
+        return OTHER_KEYS.computeIfAbsent(id, k -> {
+            long assigned = -NEXT_OTHER.incrementAndGet();
+            OTHER_IDS.put(assigned, k);
+            return assigned;
+        });
+    }
+
+    /** Key for {@code id} without registering it; NONE for a non-numeric id that was never seen. */
+    public static long peek(String id) {
+        long key = numeric(id);
+        if (key != NONE || id == null) return key;
+        Long other = OTHER_KEYS.get(id);
+        return other != null ? other : NONE;
+    }
+
+    // Key of a 1..18 digit id, else NONE
+    private static long numeric(String id) {
+        if (id == null) return NONE;
+        int n = id.length();
+        if (n == 0 || n > MAX_DIGITS) return NONE;
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return NONE;
+            v = v * 10 + (c - '0');
+        }
+        return POW10[n] + v;
+    }
+
+    /**
+     * Key for the {@code n} ASCII digits at {@code buf[off, off + n)}, without building a String.
+     * The caller has checked that they are digits.
+     */
+    public static long ofDigits(ByteBuf buf, int off, int n) {
+        if (n > MAX_DIGITS) return of(buf.toString(off, n, StandardCharsets.US_ASCII));
+        long v;
+        if (n >= 8 && n <= 16) {
+            // Two (possibly overlapping) 8-digit words: the first 8 digits, then the last n - 8
+            int tail = n - 8;
+            v = eightDigits(buf.getLongLE(off)) * POW10[tail] + eightDigits(buf.getLongLE(off + tail)) % POW10[tail];
+        } else {
+            v = 0;
+            for (int i = 0; i < n; i++) v = v * 10 + (buf.getByte(off + i) - '0');
+        }
+        return POW10[n] + v;
+    }
+
+    // Value of 8 ASCII digits read little-endian (first digit in the low byte), combined pairwise
+    private static long eightDigits(long w) {
+        w -= 0x3030303030303030L;
+        w = (w * 10 + (w >>> 8)) & 0x00FF00FF00FF00FFL;
+        w = (w * 100 + (w >>> 16)) & 0x0000FFFF0000FFFFL;
+        return (w * 10000 + (w >>> 32)) & 0xFFFFFFFFL;
+    }
+
+    /** The id a key stands for; "UNKNOWN" for NONE. */
+    public static String toId(long key) {
+        if (key == NONE) return "UNKNOWN";
+        if (key < 0) {
+            String id = OTHER_IDS.get(key);
+            return id != null ? id : "UNKNOWN";
+        }
+        // Drop the sentinel digit
+        return Long.toString(key).substring(1);
+    }
+
+    public static boolean isKnown(long key) {
+        return key != NONE;
+    }
+}
@@ -0,0 +1,96 @@
+import com.ev07b.services.CompiledFence;
+import com.ev07b.services.FenceSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the grid-indexed FenceSet lookup (with the tiered circle test) against a linear haversine
+ * scan over every fence.
+ * Fences are circles (50..2000 m) scattered over a ~100 km square; fixes fall in the same area.
+ *
+ * Usage: GeofenceIndexBenchmark [cellDeg] [fixes]
+ */
+public class GeofenceIndexBenchmark {
+    public static void main(String[] args) {
+        double cellDeg = args.length > 0 ? Double.parseDouble(args[0]) : 0.01;
+        int fixes = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int[] sizes = { 10, 1_000, 100_000 };
+
+        System.out.printf("%-8s %16s %16s %12s %10s%n", "fences", "linear ns/fix", "indexed ns/fix", "candidates", "speedup");
+        for (int n : sizes) {
+            Random rnd = new Random(42);
+            List<CompiledFence> list = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                list.add(circle(i, 40.0 + rnd.nextDouble(), -74.0 + rnd.nextDouble(), 50 + rnd.nextInt(1950)));
+            }
+            FenceSet set = FenceSet.of(list, cellDeg, 1);
+            CompiledFence[] arr = list.toArray(new CompiledFence[0]);
+            double[] lat = new double[fixes], lon = new double[fixes];
+            for (int i = 0; i < fixes; i++) {
+                lat[i] = 40.0 + rnd.nextDouble();
+                lon[i] = -74.0 + rnd.nextDouble();
+            }
+            // Linear scan over 100k fences is slow; scale the fix count so each run takes similar time
+            int m = Math.max(1_000, (int) Math.min(fixes, 2_000_000_000L / ((long) n * 50)));
+
+            long sinkA = 0, sinkB = 0, cand = 0;
+            for (int warm = 0; warm < 2; warm++) {
+                sinkA += linear(arr, lat, lon, m);
+                sinkB += indexed(set, lat, lon, m);
+            }
+            long t0 = System.nanoTime();
+            sinkA += linear(arr, lat, lon, m);
+            long t1 = System.nanoTime();
+            sinkB += indexed(set, lat, lon, m);
+            long t2 = System.nanoTime();
+            for (int i = 0; i < m; i++) cand += set.candidates(lat[i], lon[i]).length;
+
+            if (sinkA != sinkB) throw new IllegalStateException("index and linear scan disagree: " + sinkA + " vs " + sinkB);
+            double linNs = (t1 - t0) / (double) m, idxNs = (t2 - t1) / (double) m;
+            System.out.printf("%-8d %16.1f %16.1f %12.1f %9.1fx%n", n, linNs, idxNs, cand / (double) m, linNs / idxNs);
+        }
+    }
+
+    private static long linear(CompiledFence[] fences, double[] lat, double[] lon, int m) {
+        long inside = 0;
+        for (int i = 0; i < m; i++) {
+            for (CompiledFence f : fences) {
+                if (haversine(lat[i], lon[i], f.centerLat, f.centerLon) <= f.radius) inside++;
+            }
+        }
+        return inside;
+    }
+
+    private static long indexed(FenceSet set, double[] lat, double[] lon, int m) {
+        long inside = 0;
+        for (int i = 0; i < m; i++) {
+            for (int k : set.candidates(lat[i], lon[i])) {
+                CompiledFence f = set.get(k);
+                if (f.circleContains(lat[i], lon[i])) inside++;
+            }
+        }
+        return inside;
+    }
+
+    private static CompiledFence circle(long id, double lat, double lon, int radius) {
+        int flags = (1 << 8) | ((radius & 0xFFFF) << 16);
+        int latI = (int) Math.round(lat * 1e7), lonI = (int) Math.round(lon * 1e7);
+        byte[] kv = new byte[12];
+        for (int k = 0; k < 4; k++) {
+            kv[k] = (byte) (flags >>> (8 * k));
+            kv[4 + k] = (byte) (latI >>> (8 * k));
+            kv[8 + k] = (byte) (lonI >>> (8 * k));
+        }
+        return CompiledFence.compile(id, kv);
+    }
+
+    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 6371000.0 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+}
@@ -0,0 +1,496 @@
+import com.ev07b.codec.EV07BFrameDecoder;
+import com.ev07b.model.EV07BMessage;
+import com.ev07b.net.FrameWriter;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Device simulator / load generator for the EV04/EV07B listener (grown out of the old one-frame SimpleClient).
+ *
+ * Opens up to --devices concurrent connections at --connect-rate per second, each acting as one
+ * device with its own Luhn-valid IMEI, random starting sequence id and a GPS position that drifts
+ * between reports. Every device sends one frame per --interval-ms, picked from --mix:
+ *   0x10 heartbeat  [0x10][imei][gps][utc]
+ *   0x01 data       [0x01][imei][gps][utc] (+ alarm key for --alarm-ratio of them)
+ *   0x03 services   [0x03][imei][heartbeat key 0x10]
+ * A --ack-ratio share of frames sets the ACK-request bit; the 0x7F replies are matched by sequence
+ * id to measure ACK round-trip time. Every --report-s seconds it prints connect rate, frame and ACK
+ * throughput and RTT percentiles for that interval, and a cumulative summary at the end.
+ *
+ * Usage (from the module directory, after mvn test-compile):
+ *   java -cp target/classes:target/test-classes:$(deps) LoadGenerator --devices 100000 --connect-rate 5000
+ * or: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=LoadGenerator -Dexec.args="..."
+ *
+ * Options (defaults in brackets):
+ *   --host [localhost] --port [7000] --devices [1000] --connect-rate [2000] --max-pending-connects [2000]
+ *   --interval-ms [10000] --duration-s [60] --report-s [5] --mix [10:60,01:30,03:10] --ack-ratio [1.0]
+ *   --alarm-ratio [0.02] --ack-timeout-ms [10000] --threads [0 = 2 x cores] --reconnect [true]
+ *   --bind [none]  comma-separated local addresses, e.g. 127.0.0.1,127.0.0.2,... (one address gives at
+ *                  most ~28k connections to one server port with the default ephemeral port range)
+ * Large runs need a raised file descriptor limit (ulimit -n) on both sides.
+ */
+public class LoadGenerator {
+
+    private static final int ACK_CMD = 0x7F;
+    private static final long MAX_RTT_MICROS = TimeUnit.MINUTES.toMicros(5);
+    // 8-digit TACs of common tracker modules; the serial part is the device index
+    private static final String[] TACS = { "35209900", "86730703", "35896704", "86158704" };
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = Config.parse(args);
+        new LoadGenerator(cfg).run();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static final class Config {
+        String host = "localhost";
+        int port = 7000;
+        int devices = 1000;
+        int connectRate = 2000;
+        int maxPendingConnects = 2000;
+        long intervalMs = 10_000;
+        long durationS = 60;
+        long reportS = 5;
+        int[] mixCommands = { 0x10, 0x01, 0x03 };
+        int[] mixWeights = { 60, 30, 10 };
+        double ackRatio = 1.0;
+        double alarmRatio = 0.02;
+        long ackTimeoutMs = 10_000;
+        int threads = 0;
+        boolean reconnect = true;
+        String[] bind = new String[0];
+
+        static Config parse(String[] args) {
+            Map<String, String> kv = new HashMap<>();
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Expected --option value pairs, got: " + args[i]);
+                }
+                kv.put(args[i].substring(2), args[++i]);
+            }
+            Config c = new Config();
+            c.host = kv.getOrDefault("host", c.host);
+            c.port = Integer.parseInt(kv.getOrDefault("port", "" + c.port));
+            c.devices = Integer.parseInt(kv.getOrDefault("devices", "" + c.devices));
+            c.connectRate = Integer.parseInt(kv.getOrDefault("connect-rate", "" + c.connectRate));
+            c.maxPendingConnects = Integer.parseInt(kv.getOrDefault("max-pending-connects", "" + c.maxPendingConnects));
+            c.intervalMs = Long.parseLong(kv.getOrDefault("interval-ms", "" + c.intervalMs));
+            c.durationS = Long.parseLong(kv.getOrDefault("duration-s", "" + c.durationS));
+            c.reportS = Long.parseLong(kv.getOrDefault("report-s", "" + c.reportS));
+            c.ackRatio = Double.parseDouble(kv.getOrDefault("ack-ratio", "" + c.ackRatio));
+            c.alarmRatio = Double.parseDouble(kv.getOrDefault("alarm-ratio", "" + c.alarmRatio));
+            c.ackTimeoutMs = Long.parseLong(kv.getOrDefault("ack-timeout-ms", "" + c.ackTimeoutMs));
+            c.threads = Integer.parseInt(kv.getOrDefault("threads", "" + c.threads));
+            c.reconnect = Boolean.parseBoolean(kv.getOrDefault("reconnect", "" + c.reconnect));
+            if (kv.containsKey("bind")) c.bind = kv.get("bind").split(",");
+            if (kv.containsKey("mix")) {
+                String[] parts = kv.get("mix").split(",");
+                c.mixCommands = new int[parts.length];
+                c.mixWeights = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    String[] cw = parts[i].split(":");
+                    c.mixCommands[i] = Integer.parseInt(cw[0], 16);
+                    c.mixWeights[i] = Integer.parseInt(cw[1]);
+                    if (c.mixCommands[i] != 0x10 && c.mixCommands[i] != 0x01 && c.mixCommands[i] != 0x03) {
+                        throw new IllegalArgumentException("Unsupported command in mix: " + cw[0]);
+                    }
+                }
+            }
+            return c;
+        }
+    }
+
+    // ---- Counters (written from the event loops, read by the reporter) ----
+
+    private final LongAdder connectsOk = new LongAdder();
+    private final LongAdder connectsFailed = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder acksReceived = new LongAdder();
+    private final LongAdder acksLost = new LongAdder();
+    private final LongAdder otherInbound = new LongAdder();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger pendingConnects = new AtomicInteger();
+    private final AtomicLong allConnectedAt = new AtomicLong();
+    private final Recorder rttMicros = new Recorder(MAX_RTT_MICROS, 3);
+    private final Recorder connectMicros = new Recorder(MAX_RTT_MICROS, 3);
+
+    private final Config cfg;
+    private final Queue<Device> toConnect = new ConcurrentLinkedQueue<>();
+    private final int mixTotal;
+    private final long ackTimeoutNanos;
+    private EventLoopGroup group;
+    private Bootstrap bootstrap;
+    private volatile boolean running = true;
+    private volatile boolean sending = true;
+    private int bindCursor;
+
+    LoadGenerator(Config cfg) {
+        this.cfg = cfg;
+        int total = 0;
+        for (int w : cfg.mixWeights) total += w;
+        this.mixTotal = total;
+        this.ackTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(cfg.ackTimeoutMs);
+    }
+
+    void run() throws Exception {
+        boolean epoll = Epoll.isAvailable();
+        group = epoll ? new EpollEventLoopGroup(cfg.threads) : new NioEventLoopGroup(cfg.threads);
+        bootstrap = new Bootstrap()
+                .group(group)
+                .channel(epoll ? EpollSocketChannel.class : NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10_000)
+                .remoteAddress(cfg.host, cfg.port);
+
+        System.out.printf("[LoadGen] %d devices -> %s:%d (%s), %d conn/s, 1 frame per %d ms each (~%.0f frames/s), mix=%s%n",
+                cfg.devices, cfg.host, cfg.port, epoll ? "epoll" : "nio", cfg.connectRate, cfg.intervalMs,
+                cfg.devices * 1000.0 / cfg.intervalMs, mixString());
+
+        for (int i = 0; i < cfg.devices; i++) toConnect.add(new Device(i));
+
+        // Pace connection attempts: every 10 ms release rate/100 connects, bounded by in-flight attempts
+        ScheduledFuture<?> pacer = group.next().scheduleAtFixedRate(new Runnable() {
+            double budget;
+
+            @Override
+            public void run() {
+                budget = Math.min(budget + cfg.connectRate / 100.0, Math.max(1, cfg.connectRate / 10.0));
+                while (budget >= 1 && running && pendingConnects.get() < cfg.maxPendingConnects) {
+                    Device d = toConnect.poll();
+                    if (d == null) break;
+                    budget -= 1;
+                    connect(d);
+                }
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(cfg.durationS);
+        // Steady state is measured from the first report after the last device connected
+        long steadyFrom = 0, sentAtSteady = 0, acksAtSteady = 0;
+        Histogram totalRtt = new Histogram(MAX_RTT_MICROS, 3);
+        Histogram totalConnect = new Histogram(MAX_RTT_MICROS, 3);
+        Histogram rttInterval = null, connectInterval = null;
+        long lastReport = start, lastConnects = 0, lastSent = 0, lastAcks = 0;
+
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(cfg.reportS), Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+            long now = System.nanoTime();
+            rttInterval = rttMicros.getIntervalHistogram(rttInterval);
+            connectInterval = connectMicros.getIntervalHistogram(connectInterval);
+            totalRtt.add(rttInterval);
+            totalConnect.add(connectInterval);
+
+            long conns = connectsOk.sum(), sent = framesSent.sum(), acks = acksReceived.sum();
+            double secs = (now - lastReport) / 1e9;
+            long ramp = allConnectedAt.get() - start;
+            if (steadyFrom == 0 && ramp > 0) {
+                steadyFrom = now;
+                sentAtSteady = sent;
+                acksAtSteady = acks;
+                System.out.printf("[LoadGen] all %d devices connected after %.2f s (%.0f conn/s)%n",
+                        cfg.devices, ramp / 1e9, cfg.devices / (ramp / 1e9));
+            }
+            System.out.printf("[LoadGen] t=%4.0fs conn=%d (+%.0f/s, failed %d, dropped %d) sent=%.0f/s acked=%.0f/s lost=%d rtt %s%n",
+                    (now - start) / 1e9, connected.get(), (conns - lastConnects) / secs, connectsFailed.sum(),
+                    disconnects.sum(), (sent - lastSent) / secs, (acks - lastAcks) / secs, acksLost.sum(),
+                    percentiles(rttInterval));
+            lastReport = now;
+            lastConnects = conns;
+            lastSent = sent;
+            lastAcks = acks;
+        }
+
+        // Stop generating, give in-flight ACKs a chance to arrive, then tear down
+        sending = false;
+        long stop = System.nanoTime();
+        long sentAtStop = framesSent.sum(), acksAtStop = acksReceived.sum();
+        pacer.cancel(false);
+        Thread.sleep(Math.min(cfg.ackTimeoutMs, 2000));
+        running = false;
+        totalRtt.add(rttMicros.getIntervalHistogram());
+        totalConnect.add(connectMicros.getIntervalHistogram());
+
+        System.out.println("[LoadGen] ---- summary ----");
+        System.out.printf("[LoadGen] connections: ok=%d failed=%d dropped=%d, connect time %s%n",
+                connectsOk.sum(), connectsFailed.sum(), disconnects.sum(), percentiles(totalConnect));
+        if (steadyFrom > 0 && stop > steadyFrom) {
+            double steady = (stop - steadyFrom) / 1e9;
+            System.out.printf("[LoadGen] steady state (%.1f s, all devices connected): %.0f frames/s sent, %.0f ACKs/s%n",
+                    steady, (sentAtStop - sentAtSteady) / steady, (acksAtStop - acksAtSteady) / steady);
+        } else {
+            System.out.printf("[LoadGen] never reached %d concurrent devices (%d connected at the end)%n", cfg.devices, connected.get());
+        }
+        System.out.printf("[LoadGen] totals: frames=%d bytes=%d acks=%d lost=%d other-inbound=%d%n",
+                framesSent.sum(), bytesSent.sum(), acksReceived.sum(), acksLost.sum(), otherInbound.sum());
+        System.out.printf("[LoadGen] ACK round trip %s%n", percentiles(totalRtt));
+
+        group.shutdownGracefully(0, 2, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private void connect(Device d) {
+        pendingConnects.incrementAndGet();
+        long t0 = System.nanoTime();
+        ChannelFuture f;
+        if (cfg.bind.length > 0) {
+            String local = cfg.bind[Math.floorMod(bindCursor++, cfg.bind.length)];
+            f = bootstrap.clone().handler(initializer(d)).connect(bootstrap.config().remoteAddress(), new InetSocketAddress(local, 0));
+        } else {
+            f = bootstrap.clone().handler(initializer(d)).connect();
+        }
+        f.addListener((ChannelFuture done) -> {
+            pendingConnects.decrementAndGet();
+            if (done.isSuccess()) {
+                connectsOk.increment();
+                if (connected.incrementAndGet() == cfg.devices) allConnectedAt.compareAndSet(0, System.nanoTime());
+                connectMicros.recordValue(Math.min(MAX_RTT_MICROS, (System.nanoTime() - t0) / 1000));
+                d.start(done.channel());
+            } else {
+                connectsFailed.increment();
+                retry(d);
+            }
+        });
+    }
+
+    private void retry(Device d) {
+        if (running && cfg.reconnect) toConnect.add(d);
+    }
+
+    private ChannelInitializer<SocketChannel> initializer(Device d) {
+        return new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ch.pipeline().addLast(new EV07BFrameDecoder(false, EV07BFrameDecoder.Variant.EV04, EV07BFrameDecoder.DEFAULT_MAX_FRAME_LENGTH));
+                ch.pipeline().addLast(new DeviceHandler(d));
+            }
+        };
+    }
+
+    private String mixString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < cfg.mixCommands.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format("0x%02X:%d", cfg.mixCommands[i], cfg.mixWeights[i]));
+        }
+        return sb.toString();
+    }
+
+    private static String percentiles(Histogram h) {
+        if (h == null || h.getTotalCount() == 0) return "n/a";
+        return String.format("ms p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f (n=%d)",
+                h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0,
+                h.getMaxValue() / 1000.0, h.getTotalCount());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** One simulated device. State is only touched from its current channel's event loop. */
+    final class Device {
+        final byte[] imei;
+        int seq;
+        int latE7, lonE7;
+        Channel channel;
+        ScheduledFuture<?> sender;
+
+        // ACK-requested frames awaiting their 0x7F, oldest first: (seq << 48) | (sentNanos - epoch)
+        long[] inFlight = new long[8];
+        int head, size;
+        final long epoch = System.nanoTime();
+
+        Device(int index) {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            this.imei = imei(TACS[index % TACS.length], index).getBytes(StandardCharsets.US_ASCII);
+            this.seq = rnd.nextInt(0x10000);
+            // Scattered over roughly 100 x 100 km
+            this.latE7 = 523_700_000 + rnd.nextInt(10_000_000);
+            this.lonE7 = 48_900_000 + rnd.nextInt(10_000_000);
+        }
+
+        void start(Channel ch) {
+            channel = ch;
+            head = size = 0;
+            long period = cfg.intervalMs;
+            // Spread the first report over one interval so devices don't send in lock step
+            long first = ThreadLocalRandom.current().nextLong(Math.max(1, period));
+            sender = ch.eventLoop().scheduleAtFixedRate(this::sendOne, first, period, TimeUnit.MILLISECONDS);
+        }
+
+        void stopped() {
+            if (sender != null) sender.cancel(false);
+            sender = null;
+            channel = null;
+            acksLost.add(size);
+            size = 0;
+        }
+
+        void sendOne() {
+            Channel ch = channel;
+            if (ch == null || !ch.isActive()) return;
+            if (!sending) return;
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            long now = System.nanoTime();
+            expire(now);
+
+            int cmd = pickCommand(rnd);
+            boolean ack = rnd.nextDouble() < cfg.ackRatio;
+            seq = (seq + 1) & 0xFFFF;
+            latE7 += rnd.nextInt(-2_000, 2_001); // ~20 m drift between reports
+            lonE7 += rnd.nextInt(-2_000, 2_001);
+
+            ByteBuf f = FrameWriter.begin(ch.alloc(), ack ? (byte) 0x10 : (byte) 0x00, seq, 48);
+            f.writeByte(cmd);
+            f.writeByte(1 + imei.length).writeByte(0x01).writeBytes(imei);
+            int utc = (int) (System.currentTimeMillis() / 1000);
+            if (cmd == 0x03) {
+                f.writeByte(1).writeByte(0x10);                 // services: heartbeat key
+            } else {
+                f.writeByte(9).writeByte(0x20).writeIntLE(latE7).writeIntLE(lonE7);
+                f.writeByte(5).writeByte(0x24).writeIntLE(utc);
+                if (cmd == 0x01 && rnd.nextDouble() < cfg.alarmRatio) {
+                    f.writeByte(13).writeByte(0x02).writeIntLE(1 << (4 + rnd.nextInt(4))).writeIntLE(utc).writeIntLE(0);
+                }
+            }
+            FrameWriter.finish(f);
+            bytesSent.add(f.readableBytes());
+            if (ack) track(seq, now);
+            ch.writeAndFlush(f, ch.voidPromise());
+            framesSent.increment();
+        }
+
+        void onAck(int ackSeq) {
+            long now = System.nanoTime();
+            // Replies come back in order, so anything queued ahead of the matched seq was dropped
+            for (int i = 0; i < size; i++) {
+                long e = inFlight[(head + i) & (inFlight.length - 1)];
+                if ((int) (e >>> 48) == ackSeq) {
+                    acksLost.add(i);
+                    head = (head + i + 1) & (inFlight.length - 1);
+                    size -= i + 1;
+                    long sent = (e & 0xFFFF_FFFF_FFFFL) + epoch;
+                    rttMicros.recordValue(Math.min(MAX_RTT_MICROS, (now - sent) / 1000));
+                    acksReceived.increment();
+                    return;
+                }
+            }
+            otherInbound.increment(); // ACK for nothing we're waiting on
+        }
+
+        private void track(int s, long now) {
+            if (size == inFlight.length) {
+                long[] grown = new long[inFlight.length * 2];
+                for (int i = 0; i < size; i++) grown[i] = inFlight[(head + i) & (inFlight.length - 1)];
+                inFlight = grown;
+                head = 0;
+            }
+            inFlight[(head + size) & (inFlight.length - 1)] = ((long) s << 48) | (now - epoch);
+            size++;
+        }
+
+        private void expire(long now) {
+            while (size > 0) {
+                long e = inFlight[head];
+                if (now - ((e & 0xFFFF_FFFF_FFFFL) + epoch) < ackTimeoutNanos) break;
+                head = (head + 1) & (inFlight.length - 1);
+                size--;
+                acksLost.increment();
+            }
+        }
+    }
+
+    private int pickCommand(ThreadLocalRandom rnd) {
+        int r = rnd.nextInt(mixTotal);
+        for (int i = 0; i < cfg.mixWeights.length; i++) {
+            r -= cfg.mixWeights[i];
+            if (r < 0) return cfg.mixCommands[i];
+        }
+        return cfg.mixCommands[0];
+    }
+
+    final class DeviceHandler extends ChannelInboundHandlerAdapter {
+        private final Device device;
+
+        DeviceHandler(Device device) {
+            this.device = device;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof EV07BMessage && ((EV07BMessage) msg).getCommandId() == ACK_CMD) {
+                    device.onAck(((EV07BMessage) msg).getSequenceId());
+                } else {
+                    otherInbound.increment();
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            connected.decrementAndGet();
+            device.stopped();
+            if (running) {
+                disconnects.increment();
+                retry(device);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+
+    /** 15-digit IMEI: 8-digit TAC + 6-digit serial + Luhn check digit. */
+    static String imei(String tac, int serial) {
+        String body = tac + String.format("%06d", serial % 1_000_000);
+        if (serial >= 1_000_000) {
+            // Past a million devices roll over into the next TAC block
+            body = String.format("%08d", (Long.parseLong(tac) + serial / 1_000_000) % 100_000_000L) + body.substring(8);
+        }
+        int sum = 0;
+        for (int i = 0; i < 14; i++) {
+            int d = body.charAt(i) - '0';
+            if (i % 2 == 1) {
+                d *= 2;
+                if (d > 9) d -= 9;
+            }
+            sum += d;
+        }
+        return body + (10 - sum % 10) % 10;
+    }
+}
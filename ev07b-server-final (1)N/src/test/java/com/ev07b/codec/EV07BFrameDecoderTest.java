@@ -0,0 +1,145 @@
+package com.ev07b.codec;
+
+import com.ev07b.metrics.IngestionMetrics;
+import com.ev07b.model.EV07BMessage;
+import com.ev07b.net.FrameUtil;
+import com.ev07b.util.CRC16;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Framing behaviour of the decoder on an EmbeddedChannel: fragmented input, garbage and bad frames in
+ * front of good ones, and AUTO locking onto whichever variant the device speaks.
+ */
+class EV07BFrameDecoderTest {
+
+    private static final String IMEI = "358688000000158";
+
+    private final IngestionMetrics metrics = new IngestionMetrics();
+
+    // [command 0x01][keyLen 0x10][key 0x01 device id][15 ASCII digits]
+    private static byte[] body() {
+        byte[] digits = IMEI.getBytes(StandardCharsets.US_ASCII);
+        byte[] body = new byte[3 + digits.length];
+        body[0] = 0x01;
+        body[1] = 0x10;
+        body[2] = 0x01;
+        System.arraycopy(digits, 0, body, 3, digits.length);
+        return body;
+    }
+
+    private static byte[] ev04(int seq) {
+        return FrameUtil.buildFrame((byte) 0x00, seq, body());
+    }
+
+    private static byte[] legacy() {
+        byte[] body = body();
+        byte[] frame = new byte[3 + body.length + 2];
+        frame[0] = (byte) 0xAB;
+        frame[1] = (byte) (body.length >> 8);
+        frame[2] = (byte) body.length;
+        System.arraycopy(body, 0, frame, 3, body.length);
+        int crc = CRC16.crc16Ccitt(body) & 0xFFFF;
+        frame[3 + body.length] = (byte) (crc >> 8);
+        frame[4 + body.length] = (byte) crc;
+        return frame;
+    }
+
+    private EmbeddedChannel channel(EV07BFrameDecoder.Variant variant) {
+        return new EmbeddedChannel(new EV07BFrameDecoder(false, variant, EV07BFrameDecoder.DEFAULT_MAX_FRAME_LENGTH, metrics));
+    }
+
+    private static void write(EmbeddedChannel ch, byte[]... parts) {
+        for (byte[] part : parts) ch.writeInbound(Unpooled.wrappedBuffer(part));
+    }
+
+    private static void assertFrame(EV07BMessage msg, int seq) {
+        assertNotNull(msg);
+        assertEquals(0x01, msg.getCommandId());
+        assertEquals(seq, msg.getSequenceId());
+        assertEquals(IMEI, msg.getDeviceId());
+        assertArrayEquals(body(), msg.getPayload());
+    }
+
+    @Test
+    void reassemblesByteAtATime() {
+        for (EV07BFrameDecoder.Variant variant : EV07BFrameDecoder.Variant.values()) {
+            EmbeddedChannel ch = channel(variant);
+            byte[] frame = variant == EV07BFrameDecoder.Variant.LEGACY ? legacy() : ev04(7);
+            for (int i = 0; i < frame.length; i++) {
+                write(ch, new byte[] { frame[i] });
+                if (i < frame.length - 1) assertNull(ch.readInbound(), () -> variant + ": frame emitted early");
+            }
+            assertFrame(ch.readInbound(), variant == EV07BFrameDecoder.Variant.LEGACY ? 0 : 7);
+            assertNull(ch.readInbound());
+            ch.finishAndReleaseAll();
+        }
+        assertEquals(0, metrics.getCrcFailures());
+    }
+
+    @Test
+    void skipsGarbageBeforeHeader() {
+        EmbeddedChannel ch = channel(EV07BFrameDecoder.Variant.EV04);
+        write(ch, new byte[] { 0x00, 0x41, 0x7F, 0x12, 0x00 }, ev04(1));
+        assertFrame(ch.readInbound(), 1);
+        assertNull(ch.readInbound());
+        assertEquals(1, metrics.getResyncs());
+        ch.finishAndReleaseAll();
+    }
+
+    @Test
+    void dropsBadCrcFrameAndDecodesTheNext() {
+        EmbeddedChannel ch = channel(EV07BFrameDecoder.Variant.EV04);
+        byte[] bad = ev04(1);
+        bad[4] ^= 0x5A; // checksum low byte
+        write(ch, bad, ev04(2));
+        assertFrame(ch.readInbound(), 2);
+        assertNull(ch.readInbound());
+        assertEquals(1, metrics.getCrcFailures());
+        ch.finishAndReleaseAll();
+    }
+
+    @Test
+    void autoLocksOntoEv04() {
+        EmbeddedChannel ch = channel(EV07BFrameDecoder.Variant.AUTO);
+        EV07BFrameDecoder decoder = ch.pipeline().get(EV07BFrameDecoder.class);
+        write(ch, ev04(3));
+        assertEquals(EV07BFrameDecoder.Variant.EV04, decoder.variant());
+        write(ch, ev04(4));
+        assertFrame(ch.readInbound(), 3);
+        assertFrame(ch.readInbound(), 4);
+        ch.finishAndReleaseAll();
+    }
+
+    @Test
+    void autoLocksOntoLegacy() {
+        EmbeddedChannel ch = channel(EV07BFrameDecoder.Variant.AUTO);
+        EV07BFrameDecoder decoder = ch.pipeline().get(EV07BFrameDecoder.class);
+        write(ch, legacy());
+        assertEquals(EV07BFrameDecoder.Variant.LEGACY, decoder.variant());
+        write(ch, legacy());
+        assertFrame(ch.readInbound(), 0);
+        assertFrame(ch.readInbound(), 0);
+        ch.finishAndReleaseAll();
+    }
+
+    @Test
+    void autoCountsHeaderThatFitsNeitherVariant() {
+        EmbeddedChannel ch = channel(EV07BFrameDecoder.Variant.AUTO);
+        EV07BFrameDecoder decoder = ch.pipeline().get(EV07BFrameDecoder.class);
+        // Both readings of the length field are over the maximum
+        write(ch, new byte[] { (byte) 0xAB, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF }, ev04(5));
+        assertFrame(ch.readInbound(), 5);
+        assertEquals(EV07BFrameDecoder.Variant.EV04, decoder.variant());
+        assertEquals(1, metrics.getOversizeFrames());
+        ch.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,180 @@
+package com.ev07b.handler;
+
+import com.ev07b.commands.InFlightTracker;
+import com.ev07b.metrics.IngestionMetrics;
+import com.ev07b.net.ChannelSession;
+import com.ev07b.net.FrameWriter;
+import com.ev07b.services.CommandService;
+import com.ev07b.util.DeviceKeys;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * OutboundGate on an EmbeddedChannel whose writability is toggled by hand: held frames, ACKs,
+ * overflow into the pending store, and a tracked command that must reach the store only once.
+ */
+class OutboundGateTest {
+
+    private static final String DEVICE = "358688000000158";
+    private static final byte ACK_REQUESTED = 0x10;
+
+    /** Records pending-store writes instead of inserting rows. */
+    private static final class RecordingCommandService extends CommandService {
+        final List<String> deviceIds = new ArrayList<>();
+        final List<byte[]> frames = new ArrayList<>();
+
+        @Override
+        public synchronized int queuePending(List<String> ids, List<byte[]> f) {
+            deviceIds.addAll(ids);
+            frames.addAll(f);
+            return ids.size();
+        }
+
+        @Override
+        public synchronized int queueForReconnect(List<String> ids, List<byte[]> f) {
+            return queuePending(ids, f);
+        }
+    }
+
+    private final IngestionMetrics metrics = new IngestionMetrics();
+    private final RecordingCommandService store = new RecordingCommandService();
+    private final OrderedDispatchExecutor stage = new OrderedDispatchExecutor(OrderedDispatchExecutor.Mode.INLINE, 0, 16);
+
+    private EmbeddedChannel channel(long maxDeferredBytes) {
+        OutboundGate gate = new OutboundGate(true, true, maxDeferredBytes, metrics, store, stage);
+        EmbeddedChannel ch = new EmbeddedChannel(gate.newHandler());
+        ChannelSession.of(ch).identify(DeviceKeys.of(DEVICE), DEVICE, new AtomicInteger(), false);
+        return ch;
+    }
+
+    private static void setWritable(EmbeddedChannel ch, boolean writable) {
+        ch.unsafe().outboundBuffer().setUserDefinedWritability(1, writable);
+        ch.runPendingTasks();
+        assertEquals(writable, ch.isWritable());
+    }
+
+    private static ByteBuf command(EmbeddedChannel ch, byte properties, int seq) {
+        return FrameWriter.frame(ch.alloc(), properties, seq, new byte[] { 0x02, 0x05, 0x13, 1, 2, 3, 4 });
+    }
+
+    private static int readSequence(EmbeddedChannel ch) {
+        ByteBuf out = ch.readOutbound();
+        assertNotNull(out, "expected an outbound frame");
+        try {
+            return FrameWriter.sequenceOf(ByteBufUtil.getBytes(out));
+        } finally {
+            out.release();
+        }
+    }
+
+    @Test
+    void heldFramesDrainInOrder() {
+        EmbeddedChannel ch = channel(1024);
+        setWritable(ch, false);
+        assertFalse(ch.config().isAutoRead());
+
+        List<ChannelFuture> writes = new ArrayList<>();
+        for (int seq = 1; seq <= 5; seq++) writes.add(ch.writeAndFlush(command(ch, (byte) 0x00, seq)));
+        assertNull(ch.readOutbound());
+        for (ChannelFuture f : writes) assertFalse(f.isDone());
+        assertEquals(5, metrics.getOutboundDeferred());
+
+        setWritable(ch, true);
+        for (int seq = 1; seq <= 5; seq++) assertEquals(seq, readSequence(ch));
+        assertNull(ch.readOutbound());
+        for (ChannelFuture f : writes) assertTrue(f.isSuccess());
+        assertTrue(ch.config().isAutoRead());
+        ch.finishAndReleaseAll();
+    }
+
+    @Test
+    void acksPassWhileUnwritable() {
+        EmbeddedChannel ch = channel(1024);
+        setWritable(ch, false);
+        ChannelFuture held = ch.writeAndFlush(command(ch, (byte) 0x00, 1));
+        ChannelFuture ack = ch.writeAndFlush(FrameWriter.ack(ch.alloc(), 9));
+
+        assertTrue(ack.isSuccess());
+        ByteBuf out = ch.readOutbound();
+        assertTrue(FrameWriter.isAck(out));
+        out.release();
+        assertNull(ch.readOutbound());
+        assertFalse(held.isDone());
+
+        setWritable(ch, true);
+        assertEquals(1, readSequence(ch));
+        assertTrue(held.isSuccess());
+        ch.finishAndReleaseAll();
+    }
+
+    @Test
+    void overflowFailsPromiseWithSpilled() {
+        EmbeddedChannel ch = channel(2 * 15); // room for two 15-byte frames
+        setWritable(ch, false);
+        ChannelFuture first = ch.writeAndFlush(command(ch, (byte) 0x00, 1));
+        ChannelFuture second = ch.writeAndFlush(command(ch, (byte) 0x00, 2));
+        ByteBuf third = command(ch, (byte) 0x00, 3);
+        byte[] thirdBytes = ByteBufUtil.getBytes(third);
+        ChannelFuture overflow = ch.writeAndFlush(third);
+
+        assertTrue(overflow.isDone());
+        assertSame(OutboundGate.SPILLED, overflow.cause());
+        assertEquals(1, metrics.getOutboundSpilled());
+        assertEquals(List.of(DEVICE), store.deviceIds);
+        assertArrayEquals(thirdBytes, store.frames.get(0));
+
+        setWritable(ch, true);
+        assertEquals(1, readSequence(ch));
+        assertEquals(2, readSequence(ch));
+        assertTrue(first.isSuccess() && second.isSuccess());
+        ch.finishAndReleaseAll();
+    }
+
+    @Test
+    void trackedCommandSpilledOnCloseIsStoredOnce() {
+        GenericApplicationContext ctx = new GenericApplicationContext();
+        ctx.getBeanFactory().registerSingleton("commandService", store);
+        ctx.refresh();
+        // Window of 2: seq 1 and 2 are written into the gate, seq 3 waits in the tracker's backlog
+        InFlightTracker tracker = new InFlightTracker(2, 8, 60_000, 3, 2.0, 60_000, 100, metrics, stage, ctx);
+        try {
+            EmbeddedChannel ch = channel(1024);
+            setWritable(ch, false);
+            List<ChannelFuture> sends = new ArrayList<>();
+            for (int seq = 1; seq <= 3; seq++) sends.add(tracker.send(ch, seq, command(ch, ACK_REQUESTED, seq), true));
+            assertNull(ch.readOutbound());
+            assertTrue(store.frames.isEmpty());
+
+            // As on a real connection: the gate spills what it holds, then the tracker is told
+            ch.close();
+            tracker.channelClosed(ch);
+
+            for (ChannelFuture f : sends) assertSame(OutboundGate.SPILLED, f.cause());
+            List<Integer> stored = new ArrayList<>();
+            for (byte[] frame : store.frames) stored.add(FrameWriter.sequenceOf(frame));
+            stored.sort(null);
+            assertEquals(List.of(1, 2, 3), stored);
+            assertEquals(0, metrics.getRetransmits());
+            ch.finishAndReleaseAll();
+        } finally {
+            tracker.stop();
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ev07b.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The tiered circle test must make exactly the inside/outside decisions of the plain haversine
+ * check it replaced, including for points right on the boundary and near the poles/antimeridian.
+ */
+class CompiledFenceDistanceTest {
+
+    private static final double R = 6371000.0;
+
+    // The evaluator's original check, kept verbatim as the reference
+    private static boolean referenceInside(double lat, double lon, double cLat, double cLon, int radius) {
+        double dLat = Math.toRadians(cLat - lat);
+        double dLon = Math.toRadians(cLon - lon);
+        double a = Math.sin(dLat/2)*Math.sin(dLat/2) + Math.cos(Math.toRadians(lat))*Math.cos(Math.toRadians(cLat))*Math.sin(dLon/2)*Math.sin(dLon/2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+        return R * c <= (radius <= 0 ? 0.0 : radius);
+    }
+
+    private static CompiledFence circle(int latE7, int lonE7, int radius) {
+        int flags = (radius & 0xFFFF) << 16 | 1 << 8; // enabled circle, index 0
+        byte[] payload = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(flags).putInt(latE7).putInt(lonE7).array();
+        return CompiledFence.compile(1L, payload);
+    }
+
+    private static void check(CompiledFence f, double lat, double lon) {
+        boolean expected = referenceInside(lat, lon, f.centerLat, f.centerLon, f.radius);
+        assertEquals(expected, f.circleContains(lat, lon),
+                () -> "center=(" + f.centerLat + "," + f.centerLon + ") r=" + f.radius + " point=(" + lat + "," + lon + ")");
+    }
+
+    @Test
+    void matchesHaversineNearBoundary() {
+        Random rnd = new Random(0x51L);
+        for (int t = 0; t < 20_000; t++) {
+            int latE7 = (int) ((rnd.nextDouble() * 178 - 89) * 1e7);
+            int lonE7 = (int) ((rnd.nextDouble() * 360 - 180) * 1e7);
+            int radius = rnd.nextInt(4) == 0 ? rnd.nextInt(65536) : rnd.nextInt(2000);
+            CompiledFence f = circle(latE7, lonE7, radius);
+            for (int q = 0; q < 20; q++) {
+                // Points at the radius +/- a few meters, in a random bearing
+                double d = radius + (rnd.nextDouble() - 0.5) * (q < 10 ? 4 : radius * 0.2 + 10);
+                double bearing = rnd.nextDouble() * 2 * Math.PI;
+                double dLat = Math.toDegrees(d * Math.cos(bearing) / R);
+                double dLon = Math.toDegrees(d * Math.sin(bearing) / R) / Math.max(f.cosCenterLat, 1e-9);
+                double lat = Math.max(-90, Math.min(90, f.centerLat + dLat));
+                double lon = f.centerLon + dLon;
+                if (lon > 180) lon -= 360;
+                if (lon < -180) lon += 360;
+                check(f, lat, lon);
+            }
+        }
+    }
+
+    @Test
+    void matchesHaversineForUniformPoints() {
+        Random rnd = new Random(7);
+        for (int t = 0; t < 2_000; t++) {
+            int latE7 = (int) ((rnd.nextDouble() * 180 - 90) * 1e7);
+            int lonE7 = (int) ((rnd.nextDouble() * 360 - 180) * 1e7);
+            CompiledFence f = circle(latE7, lonE7, rnd.nextInt(65536));
+            for (int q = 0; q < 50; q++) {
+                double lat = f.centerLat + (rnd.nextDouble() - 0.5) * 2;
+                double lon = f.centerLon + (rnd.nextDouble() - 0.5) * 2;
+                check(f, Math.max(-90, Math.min(90, lat)), Math.max(-180, Math.min(180, lon)));
+            }
+        }
+    }
+
+    @Test
+    void zeroRadiusOnlyContainsCenter() {
+        CompiledFence f = circle(300000000, 1200000000, 0);
+        check(f, f.centerLat, f.centerLon);
+        check(f, f.centerLat + 1e-7, f.centerLon);
+    }
+}
@@ -0,0 +1,122 @@
+package com.ev07b.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The banded point-in-polygon test must make exactly the decisions of plain ray casting over every
+ * edge, including for points on vertex latitudes, on horizontal edges and on band boundaries.
+ */
+class CompiledPolygonTest {
+
+    // Plain ray casting towards +lon over all edges, in exact integer arithmetic
+    private static boolean referenceContains(int[] lat, int[] lon, int y, int x) {
+        boolean inside = false;
+        for (int i = 0, j = lat.length - 1; i < lat.length; j = i++) {
+            if ((lat[i] > y) != (lat[j] > y)) {
+                long dy = (long) lat[j] - lat[i];
+                long lhs = ((long) x - lon[i]) * dy;
+                long rhs = ((long) y - lat[i]) * ((long) lon[j] - lon[i]);
+                if (dy > 0 ? lhs < rhs : lhs > rhs) inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    // Star-shaped (generally concave) polygon around a random center; with grid > 1 the vertices are
+    // snapped to a coarse grid so many of them share a latitude and some edges are horizontal
+    private static int[][] randomPolygon(Random rnd, int n, int grid) {
+        int cLat = (int) ((rnd.nextDouble() * 160 - 80) * 1e7);
+        int cLon = (int) ((rnd.nextDouble() * 340 - 170) * 1e7);
+        int scale = 1000 + rnd.nextInt(500_000); // up to ~5 km
+        double[] angles = new double[n];
+        for (int i = 0; i < n; i++) angles[i] = rnd.nextDouble() * 2 * Math.PI;
+        Arrays.sort(angles);
+        int[] lat = new int[n];
+        int[] lon = new int[n];
+        for (int i = 0; i < n; i++) {
+            double r = scale * (0.2 + rnd.nextDouble());
+            lat[i] = snap(cLat + (int) (r * Math.sin(angles[i])), grid);
+            lon[i] = snap(cLon + (int) (r * Math.cos(angles[i])), grid);
+        }
+        return new int[][] { lat, lon };
+    }
+
+    private static int snap(int v, int grid) {
+        return grid <= 1 ? v : Math.floorDiv(v, grid) * grid;
+    }
+
+    private static void check(CompiledPolygon p, int[] lat, int[] lon, int y, int x) {
+        assertEquals(referenceContains(lat, lon, y, x), p.contains(y, x),
+                () -> "n=" + lat.length + " point=(" + y + "," + x + ")");
+    }
+
+    private static void checkAround(CompiledPolygon p, int[] lat, int[] lon, int y, int x) {
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) check(p, lat, lon, y + dy, x + dx);
+        }
+    }
+
+    @Test
+    void matchesRayCastingForRandomConcavePolygons() {
+        Random rnd = new Random(0x10L);
+        for (int t = 0; t < 3_000; t++) {
+            int n = 3 + rnd.nextInt(t % 10 == 0 ? 600 : 40); // some polygons with more vertices than bands
+            int grid = rnd.nextBoolean() ? 1 : 1000 * (1 + rnd.nextInt(50));
+            int[][] poly = randomPolygon(rnd, n, grid);
+            int[] lat = poly[0], lon = poly[1];
+            CompiledPolygon p = CompiledPolygon.of(lat, lon);
+
+            int spanLat = Math.max(1, p.maxLat - p.minLat), spanLon = Math.max(1, p.maxLon - p.minLon);
+            for (int q = 0; q < 100; q++) {
+                int y = p.minLat - spanLat / 10 + rnd.nextInt(spanLat + spanLat / 5 + 1);
+                int x = p.minLon - spanLon / 10 + rnd.nextInt(spanLon + spanLon / 5 + 1);
+                check(p, lat, lon, y, x);
+            }
+            for (int i = 0; i < n; i++) {
+                int j = (i + 1) % n;
+                // On and next to every vertex
+                checkAround(p, lat, lon, lat[i], lon[i]);
+                // On the vertex's latitude, anywhere across the polygon
+                check(p, lat, lon, lat[i], p.minLon + rnd.nextInt(spanLon + 1));
+                if (lat[i] == lat[j]) {
+                    // On a horizontal edge
+                    int lo = Math.min(lon[i], lon[j]), hi = Math.max(lon[i], lon[j]);
+                    check(p, lat, lon, lat[i], lo + rnd.nextInt(hi - lo + 1));
+                }
+            }
+            // On and around the band boundaries (same band layout as CompiledPolygon)
+            int bandCount = Math.max(1, Math.min(n, 256));
+            long bandHeight = ((long) p.maxLat - p.minLat) / bandCount + 1;
+            for (int b = 0; b <= bandCount; b++) {
+                long y = p.minLat + b * bandHeight;
+                if (y > p.maxLat + 1) break;
+                for (int k = 0; k < 3; k++) {
+                    checkAround(p, lat, lon, (int) y, p.minLon + rnd.nextInt(spanLon + 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    void concaveNotch() {
+        // U shape: the notch between the arms (lat 2..4, lon 1..2) is outside
+        int[] lat = { 0, 0, 4, 4, 2, 2, 4, 4 };
+        int[] lon = { 0, 3, 3, 2, 2, 1, 1, 0 };
+        CompiledPolygon p = CompiledPolygon.of(lat, lon);
+        assertTrue(p.contains(1, 1));
+        assertTrue(p.contains(3, 0));
+        assertTrue(p.contains(3, 2));
+        assertFalse(p.contains(3, 1));
+        assertFalse(p.contains(5, 1));
+        for (int y = -1; y <= 5; y++) {
+            for (int x = -1; x <= 4; x++) check(p, lat, lon, y, x);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.ev07b.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Random operations against a HashMap, on keys chosen to collide in the last slot of the table so
+ * probe chains wrap around and backward-shift deletion runs across the wrap, through several resizes.
+ */
+class ConcurrentLongMapTest {
+
+    private static final int HASH_BITS = 10; // keys collide in every table up to 1024 slots
+
+    // Same finalizer as ConcurrentLongMap.hash
+    private static long hash(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    // Keys whose home slot is {@code slot} (mod 2^HASH_BITS), and so the same slot in every smaller table
+    private static List<Long> keysHomingAt(int slot, int count, long from) {
+        List<Long> keys = new ArrayList<>();
+        int mask = (1 << HASH_BITS) - 1;
+        for (long k = from; keys.size() < count; k++) {
+            if (k != 0 && ((int) hash(k) & mask) == slot) keys.add(k);
+        }
+        return keys;
+    }
+
+    private static long[] keyPool(Random rnd) {
+        List<Long> keys = new ArrayList<>();
+        keys.addAll(keysHomingAt((1 << HASH_BITS) - 1, 40, 1));                  // last slot: chains wrap
+        keys.addAll(keysHomingAt(0, 40, -1_000_000));                             // first slot: the wrapped chain continues here
+        keys.addAll(keysHomingAt(1, 20, 1_000_000_000_000_000L));                 // IMEI-sized keys just behind
+        for (int i = 0; i < 100; i++) keys.add(rnd.nextLong() | 1);
+        long[] pool = new long[keys.size()];
+        for (int i = 0; i < pool.length; i++) pool[i] = keys.get(i);
+        return pool;
+    }
+
+    private static void assertSameContents(Map<Long, String> expected, ConcurrentLongMap<String> map) {
+        assertEquals(expected.size(), map.size());
+        Map<Long, String> seen = new HashMap<>();
+        map.forEach((k, v) -> assertNull(seen.put(k, v), () -> "key visited twice: " + k));
+        assertEquals(expected, seen);
+    }
+
+    private static void run(ConcurrentLongMap<String> map, long seed, int ops) {
+        Random rnd = new Random(seed);
+        long[] pool = keyPool(rnd);
+        Map<Long, String> ref = new HashMap<>();
+        for (int op = 0; op < ops; op++) {
+            long key = pool[rnd.nextInt(pool.length)];
+            // Grow towards the whole pool, then shrink back, so the tables resize and empty out
+            boolean growing = (op / 20_000) % 2 == 0;
+            int r = rnd.nextInt(10);
+            int step = op;
+            if (r < (growing ? 5 : 2)) {
+                String v = "v" + op;
+                assertSame(ref.put(key, v), map.put(key, v), () -> "put " + key + " at op " + step);
+            } else if (r < 7) {
+                assertSame(ref.remove(key), map.remove(key), () -> "remove " + key + " at op " + step);
+            } else if (r < 8) {
+                String current = ref.get(key);
+                // An equal but distinct value must not match: remove(key, expected) compares identity
+                String expected = current == null || rnd.nextBoolean() ? current : new String(current);
+                boolean removed = current != null && expected == current;
+                if (removed) ref.remove(key);
+                assertEquals(removed, map.remove(key, expected == null ? "absent" : expected),
+                        () -> "remove(key, expected) " + key + " at op " + step);
+            } else {
+                assertSame(ref.get(key), map.get(key), () -> "get " + key + " at op " + step);
+                assertEquals(ref.containsKey(key), map.containsKey(key));
+            }
+            if (op % 1_000 == 0) assertSameContents(ref, map);
+        }
+        assertSameContents(ref, map);
+        for (long key : pool) assertSame(ref.get(key), map.get(key));
+    }
+
+    @Test
+    void matchesHashMapWithCollidingKeysInOneStripe() {
+        run(new ConcurrentLongMap<>(1, 4), 21L, 200_000);
+    }
+
+    @Test
+    void matchesHashMapAcrossStripes() {
+        run(new ConcurrentLongMap<>(), 2021L, 200_000);
+    }
+
+    @Test
+    void removeWithExpectedComparesIdentity() {
+        ConcurrentLongMap<String> map = new ConcurrentLongMap<>(1, 4);
+        String a = new String("value");
+        String b = new String("value");
+        map.put(42L, a);
+        assertFalse(map.remove(42L, b));
+        assertSame(a, map.get(42L));
+        assertTrue(map.remove(42L, a));
+        assertNull(map.get(42L));
+        assertFalse(map.remove(42L, a));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void keyZeroIsReserved() {
+        ConcurrentLongMap<String> map = new ConcurrentLongMap<>(1, 4);
+        List<Long> wrapping = keysHomingAt((1 << HASH_BITS) - 1, 2, 1);
+        map.put(wrapping.get(0), "a");
+        map.put(wrapping.get(1), "b");
+        assertNull(map.get(0));
+        assertFalse(map.containsKey(0));
+        assertNull(map.remove(0));
+        assertFalse(map.remove(0, "a"));
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, "x"));
+        assertThrows(IllegalArgumentException.class, () -> map.computeIfAbsent(0, k -> "x"));
+        // Neither lookup nor removal of 0 disturbed the wrapped chain
+        assertEquals("a", map.get(wrapping.get(0)));
+        assertEquals("b", map.get(wrapping.get(1)));
+        assertEquals(2, map.size());
+    }
+}